@@ -2,11 +2,14 @@ package ru.practicum.event.service;
 
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import ru.practicum.StatClient;
+import ru.practicum.ViewStatsDto;
 import ru.practicum.category.model.Category;
 import ru.practicum.category.storage.CategoryRepository;
 import ru.practicum.event.EventMapper;
@@ -23,9 +26,9 @@ import ru.practicum.util.exception.EventValidationException;
 import ru.practicum.util.exception.ResourceNotFoundException;
 
 import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -35,6 +38,7 @@ import static ru.practicum.util.Util.FORMATTER;
 /**
  * Class service for operations with events storage
  */
+@Slf4j
 @Service
 public class EventServiceImpl implements EventService {
 
@@ -227,13 +231,22 @@ public class EventServiceImpl implements EventService {
 
         statClient.saveHit("ewm-main", uri, ip, LocalDateTime.now().format(FORMATTER));
         String[] uris = {uri};
-        String start = LocalDateTime.now().minusYears(10).format(FORMATTER);
+        // Start is aligned to a day, raw hits of old days are compacted into daily rollups on stat server
+        String start = LocalDate.now().minusYears(10).atStartOfDay().format(FORMATTER);
         String end = LocalDateTime.now().format(FORMATTER);
-        List<LinkedHashMap<String, Object>> listStat = (List<LinkedHashMap<String, Object>>) statClient
-                .getStat(start, end, uris, true)
-                .getBody();
+        List<ViewStatsDto> listStat;
+        try {
+            listStat = statClient.getStats(start, end, uris, true);
+        } catch (RestClientException e) {
+            log.warn("Statistics are not available, stored views of event {} are returned: {}", eventId,
+                    e.getMessage());
+            return EventMapper.toEventFullDto(event);
+        }
 
-        event.setViews((Integer) listStat.get(0).get("hits"));
+        // Hits spooled while stat server is unavailable are not counted yet, stored views are not lowered
+        if (!listStat.isEmpty()) {
+            event.setViews(Math.max(event.getViews(), (int) listStat.get(0).getHits()));
+        }
 
         eventRepository.save(event);
 
@@ -0,0 +1,108 @@
+package ru.practicum;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Class bounded queue of hits sent in batches by background thread.
+ * Batch is sent when it is full or flush interval passed since its first hit.
+ * On close hits left in the queue are sent before the thread stops
+ */
+@Slf4j
+class HitBatcher {
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Consumer<List<EndpointHitDto>> sender;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity        max number of hits waiting to be sent
+     * @param batchSize       max number of hits in one batch
+     * @param flushIntervalMs max time of waiting for a full batch
+     * @param sender          of batches, should not throw
+     */
+    HitBatcher(int capacity, int batchSize, long flushIntervalMs, Consumer<List<EndpointHitDto>> sender) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.sender = sender;
+        this.flusher = new Thread(this::run, "stat-client-batcher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Put hit to the queue without waiting
+     *
+     * @param hit to send
+     * @return false if the queue is full or closed
+     */
+    boolean offer(EndpointHitDto hit) {
+        return running && queue.offer(hit);
+    }
+
+    /**
+     * Number of hits waiting to be sent
+     *
+     * @return size of the queue
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting hits and wait until hits of the queue are sent
+     *
+     * @param timeoutMs max time of waiting
+     * @return number of hits not sent in time
+     */
+    int close(long timeoutMs) {
+        running = false;
+        try {
+            flusher.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return queue.size();
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                EndpointHitDto first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0 || !running) {
+                        break;
+                    }
+                    EndpointHitDto next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                sender.accept(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to send batch of hits", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Class local spool of hits not sent to stat server.
+ * Hits are appended to segment files as JSON lines and forced to disk once per appended batch,
+ * total size of not sent hits is capped.
+ * Hits are read from the oldest segment in batches, position of the next batch is saved after a batch is sent,
+ * so after a crash at most one batch is sent again. Sent segments are deleted.
+ * Line broken by a crash during append is skipped
+ */
+@Slf4j
+class HitSpool {
+    private static final String SEGMENT_SUFFIX = ".ndjson";
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final ObjectMapper objectMapper;
+    // Segments by index with positions of the next batch
+    private final NavigableMap<Long, Long> segments = new TreeMap<>();
+
+    private FileChannel writer;
+    private long writerIndex;
+    private long writerSize;
+    private long pendingBytes;
+
+    /**
+     * @param dir          directory of segments, created if absent
+     * @param maxBytes     max size of not sent hits
+     * @param segmentBytes size of segment after which the next one is started
+     */
+    HitSpool(Path dir, long maxBytes, long segmentBytes, ObjectMapper objectMapper) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.objectMapper = objectMapper;
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                        .forEach(name -> {
+                            long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                            long offset = readOffset(index);
+                            segments.put(index, offset);
+                            pendingBytes += size(index) - offset;
+                        });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writerIndex = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        if (pendingBytes > 0) {
+            log.info("Spool {} has {} bytes of hits to send", dir, pendingBytes);
+        }
+    }
+
+    /**
+     * Append hit to spool
+     *
+     * @param hit to append
+     * @return false if spool is full and hit is dropped
+     */
+    boolean append(EndpointHitDto hit) {
+        return append(List.of(hit)) == 1;
+    }
+
+    /**
+     * Append hits to spool and force them to disk once for the batch
+     *
+     * @param hits to append
+     * @return number of appended hits, the rest are dropped as spool is full
+     */
+    synchronized int append(List<EndpointHitDto> hits) {
+        int appended = 0;
+        try {
+            for (EndpointHitDto hit : hits) {
+                if (!write(hit)) {
+                    break;
+                }
+                appended++;
+            }
+            if (appended > 0) {
+                writer.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return appended;
+    }
+
+    /**
+     * Check if every hit is sent
+     *
+     * @return true if there are no hits to send
+     */
+    synchronized boolean isEmpty() {
+        return pendingBytes == 0;
+    }
+
+    /**
+     * Size of hits to send
+     *
+     * @return number of bytes
+     */
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Read the next hits to send from the oldest segment
+     * Segment being written is closed first, so new hits go to the next one
+     *
+     * @param max number of hits
+     * @return batch, empty if there is nothing to send
+     */
+    synchronized Batch peek(int max) {
+        while (!segments.isEmpty()) {
+            long index = segments.firstKey();
+            long offset = segments.get(index);
+            if (index == writerIndex && writer != null) {
+                if (offset >= writerSize) {
+                    return new Batch(index, offset, List.of());
+                }
+                closeWriter();
+            }
+
+            long size = size(index);
+            if (offset >= size) {
+                delete(index);
+                continue;
+            }
+            List<EndpointHitDto> hits = new ArrayList<>(max);
+            long end = offset;
+            try (FileChannel channel = FileChannel.open(segment(index), StandardOpenOption.READ)) {
+                channel.position(offset);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                        StandardCharsets.UTF_8));
+                String line;
+                while (hits.size() < max && (line = reader.readLine()) != null) {
+                    end += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    try {
+                        hits.add(objectMapper.readValue(line, EndpointHitDto.class));
+                    } catch (JsonProcessingException e) {
+                        log.warn("Broken line of spool {} is skipped", segment(index));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Batch(index, Math.min(end, size), hits);
+        }
+        return new Batch(-1, 0, List.of());
+    }
+
+    /**
+     * Mark hits of batch as sent
+     *
+     * @param batch returned by peek
+     */
+    synchronized void commit(Batch batch) {
+        Long offset = segments.get(batch.segment);
+        if (offset == null || batch.end <= offset) {
+            return;
+        }
+        pendingBytes -= batch.end - offset;
+        if (batch.segment != writerIndex && batch.end >= size(batch.segment)) {
+            delete(batch.segment);
+            return;
+        }
+        segments.put(batch.segment, batch.end);
+        writeOffset(batch.segment, batch.end);
+    }
+
+    /**
+     * Close segment being written
+     */
+    synchronized void close() {
+        closeWriter();
+    }
+
+    private boolean write(EndpointHitDto hit) throws IOException {
+        byte[] line;
+        try {
+            line = (objectMapper.writeValueAsString(hit) + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+        if (pendingBytes + line.length > maxBytes) {
+            return false;
+        }
+        if (writer == null || writerSize >= segmentBytes) {
+            openWriter();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            writer.write(buffer);
+        }
+        writerSize += line.length;
+        pendingBytes += line.length;
+        return true;
+    }
+
+    private void openWriter() throws IOException {
+        closeWriter();
+        writerIndex = segments.isEmpty() ? writerIndex : Math.max(writerIndex, segments.lastKey() + 1);
+        writer = FileChannel.open(segment(writerIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writerSize = writer.size();
+        segments.putIfAbsent(writerIndex, 0L);
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            // Hits of segment rolled over in the middle of a batch are forced here
+            writer.force(false);
+            writer.close();
+        } catch (IOException e) {
+            log.warn("Failed to close spool segment {}", segment(writerIndex), e);
+        }
+        writer = null;
+        writerIndex++;
+        writerSize = 0;
+    }
+
+    private void delete(long index) {
+        segments.remove(index);
+        try {
+            Files.deleteIfExists(segment(index));
+            Files.deleteIfExists(offsetFile(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long readOffset(long index) {
+        Path file = offsetFile(index);
+        try {
+            return Files.exists(file) ? Long.parseLong(Files.readString(file).trim()) : 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeOffset(long index, long offset) {
+        try {
+            Path temp = dir.resolve(index + OFFSET_SUFFIX + ".tmp");
+            Files.writeString(temp, Long.toString(offset));
+            Files.move(temp, offsetFile(index), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long size(long index) {
+        try {
+            return Files.size(segment(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segment(long index) {
+        return dir.resolve(index + SEGMENT_SUFFIX);
+    }
+
+    private Path offsetFile(long index) {
+        return dir.resolve(index + OFFSET_SUFFIX);
+    }
+
+    /**
+     * Class batch of hits read from spool
+     */
+    static class Batch {
+        private final long segment;
+        private final long end;
+        @Getter
+        private final List<EndpointHitDto> hits;
+
+        private Batch(long segment, long end, List<EndpointHitDto> hits) {
+            this.segment = segment;
+            this.end = end;
+            this.hits = hits;
+        }
+    }
+}
@@ -1,33 +1,233 @@
 package ru.practicum;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import ru.practicum.sketch.HyperLogLog;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
- * Class client to prepare REST requests to server and handle requests from main
+ * Class client to prepare REST requests to server and handle requests from main.
+ * With several stat servers hits are partitioned by consistent hashing on URI,
+ * statistics are requested from servers of requested URIs in parallel and merged.
+ * After servers are added, the previous ring is read too until old hits are not needed:
+ * hits of a group stored on two servers are summed, unique IPs are merged by HyperLogLog sketches.
+ * With spool hits not sent to a slow or unavailable server are kept in local files of the server
+ * and sent again in batches by background thread.
+ * With async hits are put to a bounded queue and sent by background thread in batches per server,
+ * hits over the queue capacity go to spool or are dropped.
+ * Concurrent identical requests of statistics share one request to servers,
+ * successful responses are reused for the same request until they are older than the configured staleness.
+ * Requests to all servers share one pool of keep-alive connections
  */
+@Slf4j
 @Service
-public class StatClient extends BaseClient {
+public class StatClient {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Map<String, StatShardClient> shards = new LinkedHashMap<>();
+    private final ConsistentHashRing ring;
+    private final ConsistentHashRing previousRing;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService spoolSender;
+    private final List<HitSpool> spools = new ArrayList<>();
+    private final HitBatcher batcher;
+    private final long shutdownTimeoutMs;
+    private final Counter droppedCounter;
+    private final Map<List<Object>, CompletableFuture<List<ViewStatsDto>>> statsInFlight =
+            new ConcurrentHashMap<>();
+    private final Map<List<Object>, CachedStats> statsCache = new ConcurrentHashMap<>();
+    private final long statsCacheTtlNanos;
+    private final int statsCacheMaxEntries;
+    private final Counter statsCacheHits;
+    private final Counter statsCoalesced;
+    private final Counter statsRequests;
+    private final CloseableHttpClient httpClient;
+
     @Autowired
-    public StatClient(@Value("${ewm-stat-server.url}") String serverUrl, RestTemplateBuilder builder) {
-        super(
-                builder
-                        .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
-                        .requestFactory(HttpComponentsClientHttpRequestFactory::new)
-                        .build()
-        );
+    public StatClient(@Value("${ewm-stat-server.url}") String serverUrls,
+                      @Value("${ewm-stat-server.previous-urls:}") String previousServerUrls,
+                      @Value("${ewm-stat-server.virtual-nodes:128}") int virtualNodes,
+                      @Value("${ewm-stat-server.spool.enabled:false}") boolean spoolEnabled,
+                      @Value("${ewm-stat-server.spool.dir:}") String spoolDir,
+                      @Value("${ewm-stat-server.spool.max-bytes:104857600}") long spoolMaxBytes,
+                      @Value("${ewm-stat-server.spool.segment-bytes:4194304}") long spoolSegmentBytes,
+                      @Value("${ewm-stat-server.spool.batch-size:500}") int spoolBatchSize,
+                      @Value("${ewm-stat-server.spool.retry-interval-ms:1000}") long spoolRetryMs,
+                      @Value("${ewm-stat-server.hit-timeout-ms:1000}") long hitTimeoutMs,
+                      @Value("${ewm-stat-server.read-timeout-ms:3000}") long readTimeoutMs,
+                      @Value("${ewm-stat-server.async.enabled:false}") boolean asyncEnabled,
+                      @Value("${ewm-stat-server.async.capacity:10000}") int asyncCapacity,
+                      @Value("${ewm-stat-server.async.batch-size:500}") int asyncBatchSize,
+                      @Value("${ewm-stat-server.async.flush-interval-ms:200}") long asyncFlushIntervalMs,
+                      @Value("${ewm-stat-server.async.shutdown-timeout-ms:10000}") long shutdownTimeoutMs,
+                      @Value("${ewm-stat-server.stats-cache.ttl-ms:1000}") long statsCacheTtlMs,
+                      @Value("${ewm-stat-server.stats-cache.max-entries:1000}") int statsCacheMaxEntries,
+                      @Value("${ewm-stat-server.pool.max-total:100}") int poolMaxTotal,
+                      @Value("${ewm-stat-server.pool.max-per-route:50}") int poolMaxPerRoute,
+                      @Value("${ewm-stat-server.pool.idle-timeout-ms:30000}") long poolIdleTimeoutMs,
+                      @Value("${ewm-stat-server.pool.validate-after-inactivity-ms:2000}") int poolValidateAfterMs,
+                      RestTemplateBuilder builder, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.ring = new ConsistentHashRing(split(serverUrls), virtualNodes);
+        List<String> previousNodes = split(previousServerUrls);
+        this.previousRing = previousNodes.isEmpty() ? null : new ConsistentHashRing(previousNodes, virtualNodes);
+        this.droppedCounter = meterRegistry.counter("stat.client.hits.dropped");
+        Counter unconfirmedCounter = meterRegistry.counter("stat.client.hits.unconfirmed");
+        if (spoolEnabled && !Path.of(spoolDir).isAbsolute()) {
+            // Relative directory would depend on working directory, spooled hits could be left behind on restart
+            throw new IllegalStateException("Absolute ewm-stat-server.spool.dir should be set, it is '"
+                    + spoolDir + "'");
+        }
+
+        // One pool of keep-alive connections for all servers, idle connections are closed in background
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(poolMaxTotal);
+        connectionManager.setDefaultMaxPerRoute(poolMaxPerRoute);
+        connectionManager.setValidateAfterInactivity(poolValidateAfterMs);
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "stat-client").bindTo(meterRegistry);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(poolIdleTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        Duration readTimeout = Duration.ofMillis(readTimeoutMs);
+        Duration hitTimeout = Duration.ofMillis(hitTimeoutMs);
+        for (String node : ring.getNodes()) {
+            if (spoolEnabled) {
+                // Directory of server, so hits are sent to the same server after restart
+                HitSpool spool = new HitSpool(Path.of(spoolDir, node.replaceAll("[^A-Za-z0-9.-]", "_")),
+                        spoolMaxBytes, spoolSegmentBytes, objectMapper);
+                spools.add(spool);
+                Gauge.builder("stat.client.spool.bytes", spool, HitSpool::getPendingBytes)
+                        .tag("server", node)
+                        .baseUnit("bytes")
+                        .register(meterRegistry);
+                shards.put(node, new StatShardClient(node, builder, httpClient, readTimeout, spool, hitTimeout,
+                        droppedCounter, unconfirmedCounter));
+            } else if (asyncEnabled) {
+                shards.put(node, new StatShardClient(node, builder, httpClient, readTimeout, null, hitTimeout,
+                        droppedCounter, unconfirmedCounter));
+            } else {
+                shards.put(node, new StatShardClient(node, builder, httpClient, readTimeout));
+            }
+        }
+        for (String node : previousNodes) {
+            shards.computeIfAbsent(node, url -> new StatShardClient(url, builder, httpClient, readTimeout));
+        }
+        this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "stat-client-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (spoolEnabled) {
+            this.spoolSender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stat-client-spool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.spoolSender.scheduleWithFixedDelay(() -> ring.getNodes().forEach(node -> {
+                try {
+                    shards.get(node).replay(spoolBatchSize);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to send spooled hits to {}", node, e);
+                }
+            }), spoolRetryMs, spoolRetryMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.spoolSender = null;
+        }
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        if (asyncEnabled) {
+            this.batcher = new HitBatcher(asyncCapacity, asyncBatchSize, asyncFlushIntervalMs, this::send);
+            Gauge.builder("stat.client.queue.size", batcher, HitBatcher::size)
+                    .register(meterRegistry);
+        } else {
+            this.batcher = null;
+        }
+        this.statsCacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(statsCacheTtlMs);
+        this.statsCacheMaxEntries = statsCacheMaxEntries;
+        this.statsCacheHits = meterRegistry.counter("stat.client.stats.requests", "result", "cached");
+        this.statsCoalesced = meterRegistry.counter("stat.client.stats.requests", "result", "coalesced");
+        this.statsRequests = meterRegistry.counter("stat.client.stats.requests", "result", "sent");
+        meterRegistry.gaugeMapSize("stat.client.stats.cache.size", List.of(), statsCache);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (batcher != null) {
+            int left = batcher.close(shutdownTimeoutMs);
+            if (left > 0) {
+                log.warn("{} hits were not sent before shutdown", left);
+                droppedCounter.increment(left);
+            }
+        }
+        executor.shutdown();
+        if (spoolSender != null) {
+            spoolSender.shutdown();
+            try {
+                spoolSender.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        spools.forEach(HitSpool::close);
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Failed to close connections to stat servers", e);
+        }
     }
 
     /**
      * Handle post request to save hit entity
      * Map input data to DTO
+     * Hit is sent to the server of its URI,
+     * if the server is not available hit is spooled and 202 is returned,
+     * if the server did not respond in time hit is not spooled and 504 is returned.
+     * With async hit is only put to the queue and 202 is returned at once,
+     * 503 is returned if the queue is full and hit is not spooled.
+     * Queued hit is not counted by statistics until it is sent
      *
      * @param app       for what service
      * @param uri       of a request
@@ -36,7 +236,35 @@ public class StatClient extends BaseClient {
      * @return response from stat server
      */
     public ResponseEntity<Object> saveHit(String app, String uri, String ip, String timeStamp) {
-        return post("/hit", EndpointHitDto.builder()
+        EndpointHitDto hit = EndpointHitDto.builder()
+                .app(app)
+                .uri(uri)
+                .ip(ip)
+                .timeStamp(timeStamp)
+                .build();
+        StatShardClient shard = shards.get(ring.getNode(uri));
+        if (batcher == null) {
+            return shard.saveHit(hit);
+        }
+        if (batcher.offer(hit) || shard.spool(hit)) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+
+    /**
+     * Send hit to the server of its URI and wait for it to be saved,
+     * without queue and spool
+     * Errors of server are thrown as HttpStatusCodeException
+     *
+     * @param app       for what service
+     * @param uri       of a request
+     * @param ip        of a user
+     * @param timeStamp when it was sent
+     * @return saved hit
+     */
+    public EndpointHitDto sendHit(String app, String uri, String ip, String timeStamp) {
+        return shards.get(ring.getNode(uri)).sendHit(EndpointHitDto.builder()
                 .app(app)
                 .uri(uri)
                 .ip(ip)
@@ -53,14 +281,251 @@ public class StatClient extends BaseClient {
      * @param uris   list of URIs of statistics
      * @param unique false - no need to show stats with unique IPs,
      *               true - show stats only with unique IPs
-     * @return response from sts server
+     * @return response from stat server with list of ViewStatsDto as body
      */
     public ResponseEntity<Object> getStat(String start, String end, String[] uris, boolean unique) {
-        Map<String, Object> parameters = Map.of(
-                "start", start,
-                "end", end,
-                "uris", uris,
-                "unique", unique);
-        return get("/stats?start={start}&end={end}&uris={uris}&unique={unique}", parameters);
+        try {
+            return ResponseEntity.ok(getStats(start, end, uris, unique));
+        } catch (HttpStatusCodeException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsByteArray());
+        }
+    }
+
+    /**
+     * Get statistics with parameters
+     * With several servers statistics of servers are merged.
+     * Caller waits for the same request of another thread instead of sending its own,
+     * statistics may be returned from cache, so the list can not be changed.
+     * With cache start is floored and end is ceiled to the cache TTL, so requests with bounds
+     * taken from the clock share cached statistics, and statistics are loaded for these bounds
+     * Errors of server are thrown as HttpStatusCodeException
+     *
+     * @param start  of statistics
+     * @param end    of statistics
+     * @param uris   list of URIs of statistics
+     * @param unique false - no need to show stats with unique IPs,
+     *               true - show stats only with unique IPs
+     * @return list of statistics ordered by hits
+     */
+    public List<ViewStatsDto> getStats(String start, String end, String[] uris, boolean unique) {
+        if (statsCacheTtlNanos > 0) {
+            start = align(start, false);
+            end = align(end, true);
+        }
+        List<Object> key = Arrays.asList(start, end, uris == null ? null : Arrays.asList(uris.clone()), unique);
+        if (statsCacheTtlNanos > 0) {
+            CachedStats cached = statsCache.get(key);
+            if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+                statsCacheHits.increment();
+                return cached.stats;
+            }
+        }
+
+        CompletableFuture<List<ViewStatsDto>> future = new CompletableFuture<>();
+        CompletableFuture<List<ViewStatsDto>> running = statsInFlight.putIfAbsent(key, future);
+        if (running != null) {
+            statsCoalesced.increment();
+            return join(running);
+        }
+        statsRequests.increment();
+        try {
+            List<ViewStatsDto> stats = Collections.unmodifiableList(loadStats(start, end, uris, unique));
+            if (statsCacheTtlNanos > 0) {
+                cache(key, stats);
+            }
+            future.complete(stats);
+            return stats;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Removed after statistics are cached, so the next caller finds one of them
+            statsInFlight.remove(key, future);
+        }
+    }
+
+    private List<ViewStatsDto> loadStats(String start, String end, String[] uris, boolean unique) {
+        if (shards.size() == 1) {
+            return shards.values().iterator().next().getStatList(start, end, uris, unique);
+        }
+        return merge(start, end, route(uris), unique);
+    }
+
+    /**
+     * Time floored or ceiled to the cache TTL in whole seconds,
+     * time in unknown format is left for the server to reject
+     */
+    private String align(String time, boolean up) {
+        long step = TimeUnit.NANOSECONDS.toSeconds(statsCacheTtlNanos);
+        if (step <= 1) {
+            return time;
+        }
+        LocalDateTime dateTime;
+        try {
+            dateTime = LocalDateTime.parse(time, FORMATTER);
+        } catch (DateTimeParseException e) {
+            return time;
+        }
+        long seconds = dateTime.toEpochSecond(ZoneOffset.UTC);
+        long aligned = Math.floorDiv(seconds, step) * step;
+        if (up && aligned < seconds) {
+            aligned += step;
+        }
+        return LocalDateTime.ofEpochSecond(aligned, 0, ZoneOffset.UTC).format(FORMATTER);
+    }
+
+    /**
+     * Expired statistics are removed when cache is full,
+     * statistics are not cached if cache is still full
+     */
+    private void cache(List<Object> key, List<ViewStatsDto> stats) {
+        long now = System.nanoTime();
+        if (statsCache.size() >= statsCacheMaxEntries) {
+            statsCache.values().removeIf(cached -> cached.expiresAt - now <= 0);
+            if (statsCache.size() >= statsCacheMaxEntries) {
+                return;
+            }
+        }
+        statsCache.put(key, new CachedStats(stats, now + statsCacheTtlNanos));
+    }
+
+    /**
+     * Send batch of queued hits, hits of every server in one request
+     */
+    private void send(List<EndpointHitDto> hits) {
+        Map<String, List<EndpointHitDto>> hitsByNode = new LinkedHashMap<>();
+        for (EndpointHitDto hit : hits) {
+            hitsByNode.computeIfAbsent(ring.getNode(hit.getUri()), node -> new ArrayList<>()).add(hit);
+        }
+        hitsByNode.forEach((node, nodeHits) -> shards.get(node).saveHits(nodeHits));
+    }
+
+    /**
+     * Servers to request with their URIs,
+     * null URIs - all URIs of server
+     */
+    private Map<String, String[]> route(String[] uris) {
+        Map<String, String[]> targets = new LinkedHashMap<>();
+        if (uris == null) {
+            shards.keySet().forEach(node -> targets.put(node, null));
+            return targets;
+        }
+        Map<String, Set<String>> urisByNode = new LinkedHashMap<>();
+        for (String uri : uris) {
+            urisByNode.computeIfAbsent(ring.getNode(uri), node -> new LinkedHashSet<>()).add(uri);
+            if (previousRing != null) {
+                urisByNode.computeIfAbsent(previousRing.getNode(uri), node -> new LinkedHashSet<>()).add(uri);
+            }
+        }
+        urisByNode.forEach((node, nodeUris) -> targets.put(node, nodeUris.toArray(new String[0])));
+        return targets;
+    }
+
+    private List<ViewStatsDto> merge(String start, String end, Map<String, String[]> targets, boolean unique) {
+        Map<String, List<ViewStatsDto>> statsByNode = fanOut(targets,
+                (node, uris) -> shards.get(node).getStatList(start, end, uris, unique));
+
+        Map<List<String>, ViewStatsDto> merged = new HashMap<>();
+        Map<List<String>, Set<String>> nodesByGroup = new HashMap<>();
+        statsByNode.forEach((node, stats) -> {
+            for (ViewStatsDto stat : stats) {
+                List<String> group = List.of(stat.getApp(), stat.getUri());
+                nodesByGroup.computeIfAbsent(group, g -> new LinkedHashSet<>()).add(node);
+                merged.merge(group, new ViewStatsDto(stat.getApp(), stat.getUri(), stat.getHits()),
+                        (a, b) -> new ViewStatsDto(a.getApp(), a.getUri(), a.getHits() + b.getHits()));
+            }
+        });
+
+        if (unique) {
+            mergeSketches(start, end, nodesByGroup, merged);
+        }
+
+        List<ViewStatsDto> result = new ArrayList<>(merged.values());
+        result.sort(Comparator.comparingLong(ViewStatsDto::getHits).reversed());
+        return result;
+    }
+
+    /**
+     * Unique IPs of a group stored on several servers can not be summed,
+     * their counts are replaced by cardinality of merged sketches
+     */
+    private void mergeSketches(String start, String end, Map<List<String>, Set<String>> nodesByGroup,
+                               Map<List<String>, ViewStatsDto> merged) {
+        Map<String, Set<String>> splitUris = new LinkedHashMap<>();
+        nodesByGroup.forEach((group, nodes) -> {
+            if (nodes.size() > 1) {
+                nodes.forEach(node -> splitUris.computeIfAbsent(node, n -> new LinkedHashSet<>()).add(group.get(1)));
+            }
+        });
+        if (splitUris.isEmpty()) {
+            return;
+        }
+
+        Map<String, String[]> targets = new LinkedHashMap<>();
+        splitUris.forEach((node, uris) -> targets.put(node, uris.toArray(new String[0])));
+        Map<List<String>, HyperLogLog> sketches = new HashMap<>();
+        fanOut(targets, (node, uris) -> shards.get(node).getSketches(start, end, uris)).values()
+                .forEach(nodeSketches -> nodeSketches.forEach(sketch -> {
+                    List<String> group = List.of(sketch.getApp(), sketch.getUri());
+                    if (nodesByGroup.getOrDefault(group, Set.of()).size() > 1) {
+                        sketches.computeIfAbsent(group, g -> new HyperLogLog())
+                                .merge(HyperLogLog.fromBytes(sketch.getSketch()));
+                    }
+                }));
+        sketches.forEach((group, sketch) -> merged.put(group,
+                new ViewStatsDto(group.get(0), group.get(1), sketch.cardinality())));
+    }
+
+    private <T> Map<String, T> fanOut(Map<String, String[]> targets, NodeRequest<T> request) {
+        Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        targets.forEach((node, uris) ->
+                futures.put(node, CompletableFuture.supplyAsync(() -> request.send(node, uris), executor)));
+
+        Map<String, T> results = new LinkedHashMap<>();
+        futures.forEach((node, future) -> results.put(node, join(future)));
+        return results;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<String> split(String urls) {
+        return Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Class statistics with time of expiration
+     */
+    private static class CachedStats {
+        private final List<ViewStatsDto> stats;
+        private final long expiresAt;
+
+        private CachedStats(List<ViewStatsDto> stats, long expiresAt) {
+            this.stats = stats;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Interface for request to one server
+     */
+    @FunctionalInterface
+    private interface NodeRequest<T> {
+        T send(String node, String[] uris);
     }
 }
@@ -0,0 +1,107 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class reader of responses of stat server.
+ * Bodies are read token by token straight into DTO,
+ * without building maps or trees, unknown fields are skipped
+ */
+class StatJsonReader {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private StatJsonReader() {
+    }
+
+    /**
+     * Read array of statistics
+     *
+     * @param body of response
+     * @return list of statistics, empty for empty body
+     */
+    static List<ViewStatsDto> readStats(InputStream body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return new ArrayList<>();
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Array of statistics is expected.");
+            }
+            List<ViewStatsDto> stats = new ArrayList<>();
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                stats.add(readStat(parser));
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Object of statistics is expected.");
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Read saved hit
+     *
+     * @param body of response
+     * @return hit
+     */
+    static EndpointHitDto readHit(InputStream body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Object of hit is expected.");
+            }
+            EndpointHitDto hit = new EndpointHitDto();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "app":
+                        hit.setApp(parser.getValueAsString());
+                        break;
+                    case "uri":
+                        hit.setUri(parser.getValueAsString());
+                        break;
+                    case "ip":
+                        hit.setIp(parser.getValueAsString());
+                        break;
+                    case "timeStamp":
+                        hit.setTimeStamp(parser.getValueAsString());
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return hit;
+        }
+    }
+
+    private static ViewStatsDto readStat(JsonParser parser) throws IOException {
+        ViewStatsDto stat = new ViewStatsDto();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "app":
+                    stat.setApp(parser.getValueAsString());
+                    break;
+                case "uri":
+                    stat.setUri(parser.getValueAsString());
+                    break;
+                case "hits":
+                    stat.setHits(parser.getValueAsLong());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return stat;
+    }
+}
@@ -0,0 +1,259 @@
+package ru.practicum;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class client of one stat server of the cluster.
+ * Hits are sent with short timeouts, with spool hits not sent are appended to spool
+ * and sent in batches by {@link #replay(int)}. While spool is not empty or server failed,
+ * new hits go to spool without waiting for server.
+ * Only hits of requests which did not reach server or were refused with 429 or 5xx are spooled,
+ * hits of requests timed out after they were sent may be saved by server, they are counted as unconfirmed
+ * and not sent again, so views are not counted twice
+ */
+@Slf4j
+class StatShardClient extends BaseClient {
+    private final RestTemplate hitRest;
+    private final HitSpool spool;
+    private final Counter droppedCounter;
+    private final Counter unconfirmedCounter;
+    private volatile boolean healthy = true;
+
+    StatShardClient(String serverUrl, RestTemplateBuilder builder, HttpClient httpClient, Duration readTimeout) {
+        this(serverUrl, builder, httpClient, readTimeout, null, null, null, null);
+    }
+
+    /**
+     * @param httpClient     with pool of connections shared by clients of all servers
+     * @param readTimeout    of connection and response of statistics
+     * @param spool          of hits not sent, null to drop them
+     * @param hitTimeout     of connection and response of hits, null if hits are not sent
+     * @param droppedCounter     of hits neither sent nor spooled
+     * @param unconfirmedCounter of hits sent without response, server may have saved them
+     */
+    StatShardClient(String serverUrl, RestTemplateBuilder builder, HttpClient httpClient, Duration readTimeout,
+                    HitSpool spool, Duration hitTimeout, Counter droppedCounter, Counter unconfirmedCounter) {
+        super(
+                builder
+                        .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
+                        .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                        .setConnectTimeout(readTimeout)
+                        .setReadTimeout(readTimeout)
+                        .build()
+        );
+        this.spool = spool;
+        this.droppedCounter = droppedCounter;
+        this.unconfirmedCounter = unconfirmedCounter;
+        this.hitRest = hitTimeout == null ? null : builder
+                .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .setConnectTimeout(hitTimeout)
+                .setReadTimeout(hitTimeout)
+                .build();
+    }
+
+    /**
+     * Send hit to server or append it to spool
+     *
+     * @return response of server, 202 if hit is spooled, 503 if spool is full,
+     * 504 if server did not respond in time and hit may be saved
+     */
+    ResponseEntity<Object> saveHit(EndpointHitDto endpointHitDto) {
+        if (spool == null) {
+            return post("/hit", endpointHitDto);
+        }
+        if (healthy && spool.isEmpty()) {
+            try {
+                return hitRest.postForEntity("/hit", endpointHitDto, Object.class);
+            } catch (HttpStatusCodeException e) {
+                if (!isRetryable(e.getStatusCode())) {
+                    return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsByteArray());
+                }
+            } catch (ResourceAccessException e) {
+                if (!isNotSent(e)) {
+                    log.warn("Stat server did not respond, hit is not spooled: {}", e.getMessage());
+                    unconfirmedCounter.increment();
+                    healthy = false;
+                    return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+                }
+                log.warn("Stat server is not available, hits are spooled: {}", e.getMessage());
+            }
+            healthy = false;
+        }
+        return spool(endpointHitDto)
+                ? ResponseEntity.status(HttpStatus.ACCEPTED).build()
+                : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+
+    /**
+     * Send hit to server and wait for response
+     * Errors of server are thrown as HttpStatusCodeException
+     *
+     * @return saved hit
+     */
+    EndpointHitDto sendHit(EndpointHitDto endpointHitDto) {
+        return rest.execute("/hit", HttpMethod.POST, rest.httpEntityCallback(endpointHitDto, EndpointHitDto.class),
+                response -> StatJsonReader.readHit(response.getBody()));
+    }
+
+    /**
+     * Send batch of hits to server
+     * Hits not sent are spooled or dropped if there is no spool
+     *
+     * @param hits to send
+     */
+    void saveHits(List<EndpointHitDto> hits) {
+        if (spool == null || (healthy && spool.isEmpty())) {
+            try {
+                hitRest.postForEntity("/hits", hits, EndpointHitBatchResultDto.class);
+                return;
+            } catch (HttpStatusCodeException e) {
+                if (!isRetryable(e.getStatusCode())) {
+                    log.warn("Stat server rejected {} hits: {}", hits.size(), e.getStatusCode());
+                    droppedCounter.increment(hits.size());
+                    return;
+                }
+                log.warn("Stat server did not accept {} hits: {}", hits.size(), e.getStatusCode());
+            } catch (ResourceAccessException e) {
+                if (!isNotSent(e)) {
+                    log.warn("Stat server did not respond, {} hits are not spooled: {}", hits.size(), e.getMessage());
+                    unconfirmedCounter.increment(hits.size());
+                    healthy = false;
+                    return;
+                }
+                log.warn("Stat server is not available: {}", e.getMessage());
+            }
+            healthy = false;
+        }
+        int spooled = spool == null ? 0 : spool.append(hits);
+        if (spooled < hits.size()) {
+            droppedCounter.increment(hits.size() - spooled);
+        }
+    }
+
+    /**
+     * Append hit to spool without sending it
+     *
+     * @param hit to append
+     * @return false if hit is dropped
+     */
+    boolean spool(EndpointHitDto hit) {
+        if (spool != null && spool.append(hit)) {
+            return true;
+        }
+        droppedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Send spooled hits in batches
+     * until spool is empty or server fails
+     *
+     * @param batchSize max number of hits in one request
+     */
+    void replay(int batchSize) {
+        if (spool == null) {
+            return;
+        }
+        while (true) {
+            HitSpool.Batch batch = spool.peek(batchSize);
+            if (batch.getHits().isEmpty()) {
+                healthy = true;
+                return;
+            }
+            try {
+                hitRest.postForEntity("/hits", batch.getHits(), EndpointHitBatchResultDto.class);
+            } catch (HttpStatusCodeException e) {
+                if (isRetryable(e.getStatusCode())) {
+                    healthy = false;
+                    return;
+                }
+                // Hits rejected by server are not sent again
+                log.warn("Stat server rejected {} spooled hits: {}", batch.getHits().size(), e.getStatusCode());
+                droppedCounter.increment(batch.getHits().size());
+            } catch (ResourceAccessException e) {
+                healthy = false;
+                if (isNotSent(e)) {
+                    return;
+                }
+                // Server may have saved the batch, it is not sent again
+                log.warn("Stat server did not respond, {} spooled hits are not sent again: {}",
+                        batch.getHits().size(), e.getMessage());
+                unconfirmedCounter.increment(batch.getHits().size());
+                spool.commit(batch);
+                return;
+            }
+            spool.commit(batch);
+        }
+    }
+
+    /**
+     * Get statistics as DTO
+     * Errors of server are thrown as HttpStatusCodeException
+     *
+     * @param uris list of URIs, null for all URIs
+     */
+    List<ViewStatsDto> getStatList(String start, String end, String[] uris, boolean unique) {
+        return rest.execute(query("/stats", start, end, uris)
+                        .queryParam("unique", unique)
+                        .build()
+                        .toUriString(), HttpMethod.GET, rest.acceptHeaderRequestCallback(ViewStatsDto[].class),
+                response -> StatJsonReader.readStats(response.getBody()));
+    }
+
+    /**
+     * Get sketches of unique IPs as DTO
+     * Errors of server are thrown as HttpStatusCodeException
+     *
+     * @param uris list of URIs, null for all URIs
+     */
+    List<ViewStatsSketchDto> getSketches(String start, String end, String[] uris) {
+        ViewStatsSketchDto[] sketches = rest.getForObject(query("/stats/sketches", start, end, uris)
+                .build()
+                .toUriString(), ViewStatsSketchDto[].class);
+        return sketches == null ? List.of() : Arrays.asList(sketches);
+    }
+
+    private static UriComponentsBuilder query(String path, String start, String end, String[] uris) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromPath(path)
+                .queryParam("start", start)
+                .queryParam("end", end);
+        if (uris != null) {
+            builder.queryParam("uris", (Object[]) uris);
+        }
+        return builder;
+    }
+
+    /**
+     * Check if request failed before it was sent, so server has not seen it
+     */
+    private static boolean isNotSent(ResourceAccessException e) {
+        Throwable cause = e.getCause();
+        // Timeout of connection pool is a timeout of connection too
+        return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                || cause instanceof UnknownHostException;
+    }
+
+    private static boolean isRetryable(HttpStatus status) {
+        return status == HttpStatus.TOO_MANY_REQUESTS || status.is5xxServerError();
+    }
+}
@@ -0,0 +1,148 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitSpoolTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsAppendedHitsInBatches() {
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1 << 20, objectMapper);
+        assertEquals(5, spool.append(hits(0, 5)));
+
+        HitSpool.Batch first = spool.peek(3);
+        assertEquals(uris(0, 3), uris(first));
+        // Batch is read again until it is committed
+        assertEquals(uris(0, 3), uris(spool.peek(3)));
+        spool.commit(first);
+
+        HitSpool.Batch second = spool.peek(3);
+        assertEquals(uris(3, 5), uris(second));
+        spool.commit(second);
+
+        assertTrue(spool.isEmpty());
+        assertTrue(spool.peek(3).getHits().isEmpty());
+        spool.close();
+    }
+
+    @Test
+    void committedHitsAreNotReadAfterReopen() {
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1 << 20, objectMapper);
+        spool.append(hits(0, 4));
+        spool.commit(spool.peek(2));
+        spool.close();
+
+        HitSpool reopened = new HitSpool(dir, 1 << 20, 1 << 20, objectMapper);
+
+        assertFalse(reopened.isEmpty());
+        assertEquals(uris(2, 4), uris(reopened.peek(10)));
+        reopened.close();
+    }
+
+    @Test
+    void readsHitsOfSeveralSegments() {
+        // Every line starts a new segment
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1, objectMapper);
+        spool.append(hits(0, 3));
+
+        List<String> read = new ArrayList<>();
+        HitSpool.Batch batch;
+        while (!(batch = spool.peek(10)).getHits().isEmpty()) {
+            read.addAll(uris(batch));
+            spool.commit(batch);
+        }
+
+        assertEquals(uris(0, 3), read);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    void brokenLineIsSkipped() throws IOException {
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1 << 20, objectMapper);
+        spool.append(hits(0, 1));
+        spool.close();
+        // Line cut by a crash during append
+        Files.writeString(dir.resolve("0.ndjson"), "{\"app\":\"ewm\",\"ur\n", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        HitSpool reopened = new HitSpool(dir, 1 << 20, 1 << 20, objectMapper);
+        reopened.append(hits(1, 2));
+
+        List<String> read = new ArrayList<>();
+        HitSpool.Batch batch;
+        while (!(batch = reopened.peek(10)).getHits().isEmpty()) {
+            read.addAll(uris(batch));
+            reopened.commit(batch);
+        }
+
+        assertEquals(uris(0, 2), read);
+        reopened.close();
+    }
+
+    @Test
+    void hitsOverMaxSizeAreDropped() {
+        HitSpool spool = new HitSpool(dir, 200, 1 << 20, objectMapper);
+
+        int appended = spool.append(hits(0, 10));
+
+        assertTrue(appended > 0 && appended < 10);
+        assertTrue(spool.getPendingBytes() <= 200);
+        assertFalse(spool.append(hit(10)));
+
+        spool.commit(spool.peek(10));
+
+        assertTrue(spool.append(hit(11)));
+        spool.close();
+    }
+
+    private static List<EndpointHitDto> hits(int from, int to) {
+        List<EndpointHitDto> hits = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            hits.add(hit(i));
+        }
+        return hits;
+    }
+
+    private static EndpointHitDto hit(int i) {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri("/events/" + i)
+                .ip("192.168.0." + i)
+                .timeStamp("2022-10-01 12:00:00")
+                .build();
+    }
+
+    private static List<String> uris(int from, int to) {
+        List<String> uris = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            uris.add("/events/" + i);
+        }
+        return uris;
+    }
+
+    private static List<String> uris(HitSpool.Batch batch) {
+        List<String> uris = new ArrayList<>();
+        for (EndpointHitDto hit : batch.getHits()) {
+            uris.add(hit.getUri());
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatShardClientTest {
+    private final CloseableHttpClient httpClient = HttpClients.createDefault();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Counter droppedCounter = meterRegistry.counter("stat.client.hits.dropped");
+    private final Counter unconfirmedCounter = meterRegistry.counter("stat.client.hits.unconfirmed");
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+    }
+
+    @Test
+    void hitNotSentToUnavailableServerIsSpooled() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1 << 20, new ObjectMapper());
+
+        assertEquals(HttpStatus.ACCEPTED, client(port, spool).saveHit(hit()).getStatusCode());
+
+        assertFalse(spool.isEmpty());
+        assertEquals(0, unconfirmedCounter.count());
+        spool.close();
+    }
+
+    @Test
+    void hitOfTimedOutRequestIsNotSpooled() throws IOException {
+        HitSpool spool = new HitSpool(dir, 1 << 20, 1 << 20, new ObjectMapper());
+        // Connection is accepted by backlog of the socket, but response never comes
+        try (ServerSocket socket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            StatShardClient client = client(socket.getLocalPort(), spool);
+
+            assertEquals(HttpStatus.GATEWAY_TIMEOUT, client.saveHit(hit()).getStatusCode());
+        }
+
+        assertTrue(spool.isEmpty());
+        assertEquals(1, unconfirmedCounter.count());
+        spool.close();
+    }
+
+    private StatShardClient client(int port, HitSpool spool) {
+        return new StatShardClient("http://localhost:" + port, new RestTemplateBuilder(), httpClient,
+                Duration.ofSeconds(1), spool, Duration.ofMillis(200), droppedCounter, unconfirmedCounter);
+    }
+
+    private static EndpointHitDto hit() {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri("/events/1")
+                .ip("192.168.0.1")
+                .timeStamp("2022-10-01 12:00:00")
+                .build();
+    }
+}
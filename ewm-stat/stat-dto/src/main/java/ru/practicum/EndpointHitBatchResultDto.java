@@ -0,0 +1,22 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO class for result of batch saving of hits
+ * with number of accepted hits per JDBC batch
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class EndpointHitBatchResultDto {
+    private int received;
+    private int accepted;
+    private List<Integer> batches;
+}
@@ -1,7 +1,9 @@
 package ru.practicum;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.NotBlank;
 
@@ -11,6 +13,8 @@ import javax.validation.constraints.NotBlank;
  */
 @Data
 @Builder
+@AllArgsConstructor
+@NoArgsConstructor
 public class EndpointHitDto {
     @NotBlank
     private String app;
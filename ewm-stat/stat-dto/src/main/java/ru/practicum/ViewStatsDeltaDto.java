@@ -0,0 +1,21 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import java.util.List;
+
+/**
+ * DTO class for hits added since cursor
+ * and cursor to request the next changes
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ViewStatsDeltaDto {
+    @NotBlank
+    private String cursor;
+    private List<ViewStatsDto> stats;
+}
@@ -0,0 +1,22 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * DTO class for live counts of hits and unique IPs of statistics group
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ViewStatsLiveDto {
+    @NotBlank
+    private String app;
+    @NotBlank
+    private String uri;
+    private long hits;
+    private long uniqueHits;
+}
@@ -0,0 +1,20 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * DTO class for statistics of one time bucket of URI
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ViewStatsSeriesDto {
+    @NotBlank
+    private String bucket;
+    private long hits;
+    private long uniqueHits;
+}
@@ -0,0 +1,22 @@
+package ru.practicum;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * DTO class for HyperLogLog sketch of unique IPs
+ * of statistics group, sent as base64
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ViewStatsSketchDto {
+    @NotBlank
+    private String app;
+    @NotBlank
+    private String uri;
+    private byte[] sketch;
+}
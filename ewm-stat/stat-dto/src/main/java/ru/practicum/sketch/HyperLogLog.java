@@ -0,0 +1,165 @@
+package ru.practicum.sketch;
+
+/**
+ * Class HyperLogLog sketch to estimate number of distinct values.
+ * Sketches are mergeable: sketch of a union is the register-wise max of sketches.
+ * With 2^12 registers standard error of estimate is 1.04 / sqrt(4096) ~ 1.6%,
+ * small cardinalities are counted by linear counting and are almost exact.
+ */
+public class HyperLogLog {
+    public static final int PRECISION = 12;
+    public static final int REGISTERS = 1 << PRECISION;
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this.registers = new byte[REGISTERS];
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    /**
+     * Add value to sketch
+     *
+     * @param value to add
+     * @return true if sketch was changed
+     */
+    public boolean add(byte[] value) {
+        return addHash(hash(value));
+    }
+
+    /**
+     * Add hashed value to sketch
+     *
+     * @param hash 64-bit hash of value
+     * @return true if sketch was changed
+     */
+    public boolean addHash(long hash) {
+        int index = (int) (hash >>> (Long.SIZE - PRECISION));
+        byte rank = (byte) Math.min(Long.numberOfLeadingZeros(hash << PRECISION) + 1, Long.SIZE - PRECISION + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merge other sketch into this one
+     *
+     * @param other sketch to merge
+     * @return true if sketch was changed
+     */
+    public boolean merge(HyperLogLog other) {
+        boolean changed = false;
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Estimate number of distinct values
+     *
+     * @return estimated cardinality
+     */
+    public long cardinality() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Serialize sketch
+     * Sketches with few non-empty registers are stored as (index, rank) pairs
+     *
+     * @return bytes of sketch
+     */
+    public byte[] toBytes() {
+        int used = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                used++;
+            }
+        }
+
+        if (used * 3 < REGISTERS) {
+            byte[] bytes = new byte[1 + used * 3];
+            bytes[0] = SPARSE;
+            int position = 1;
+            for (int i = 0; i < REGISTERS; i++) {
+                if (registers[i] != 0) {
+                    bytes[position++] = (byte) (i >>> 8);
+                    bytes[position++] = (byte) i;
+                    bytes[position++] = registers[i];
+                }
+            }
+            return bytes;
+        }
+
+        byte[] bytes = new byte[1 + REGISTERS];
+        bytes[0] = DENSE;
+        System.arraycopy(registers, 0, bytes, 1, REGISTERS);
+        return bytes;
+    }
+
+    /**
+     * Deserialize sketch
+     *
+     * @param bytes of sketch
+     * @return sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        byte[] registers = new byte[REGISTERS];
+        if (bytes[0] == DENSE) {
+            System.arraycopy(bytes, 1, registers, 0, REGISTERS);
+        } else {
+            for (int position = 1; position < bytes.length; position += 3) {
+                int index = ((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF);
+                registers[index] = bytes[position + 2];
+            }
+        }
+        return new HyperLogLog(registers);
+    }
+
+    /**
+     * 64-bit hash of bytes
+     * FNV-1a with MurmurHash3 finalizer for good spread of high bits
+     *
+     * @param bytes to hash
+     * @return hash
+     */
+    public static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
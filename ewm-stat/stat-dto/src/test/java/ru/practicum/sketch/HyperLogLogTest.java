@@ -0,0 +1,96 @@
+package ru.practicum.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptySketchCountsNothing() {
+        assertEquals(0, new HyperLogLog().cardinality());
+    }
+
+    @Test
+    void smallCardinalityIsAlmostExact() {
+        HyperLogLog sketch = sketch(0, 100);
+
+        // Linear counting, only values of the same register are lost
+        assertEquals(100, sketch.cardinality(), 2);
+    }
+
+    @Test
+    void largeCardinalityIsWithinError() {
+        HyperLogLog sketch = sketch(0, 1_000_000);
+
+        // Standard error is 1.6%, three of them
+        assertEquals(1_000_000, sketch.cardinality(), 1_000_000 * 0.05);
+    }
+
+    @Test
+    void repeatedValueDoesNotChangeSketch() {
+        HyperLogLog sketch = new HyperLogLog();
+
+        assertTrue(sketch.add(value(7)));
+        assertFalse(sketch.add(value(7)));
+        assertEquals(1, sketch.cardinality());
+    }
+
+    @Test
+    void mergeCountsUnion() {
+        HyperLogLog first = sketch(0, 60_000);
+        HyperLogLog second = sketch(40_000, 100_000);
+
+        assertTrue(first.merge(second));
+
+        assertEquals(100_000, first.cardinality(), 100_000 * 0.05);
+        assertFalse(first.merge(second));
+    }
+
+    @Test
+    void mergeOfSketchesEqualsSketchOfAllValues() {
+        HyperLogLog merged = sketch(0, 5_000);
+        merged.merge(sketch(5_000, 10_000));
+
+        assertArrayEquals(sketch(0, 10_000).toBytes(), merged.toBytes());
+    }
+
+    @Test
+    void sparseSketchIsRestoredFromBytes() {
+        HyperLogLog sketch = sketch(0, 50);
+
+        byte[] bytes = sketch.toBytes();
+
+        assertTrue(bytes.length < HyperLogLog.REGISTERS);
+        assertArrayEquals(bytes, HyperLogLog.fromBytes(bytes).toBytes());
+        assertEquals(sketch.cardinality(), HyperLogLog.fromBytes(bytes).cardinality());
+    }
+
+    @Test
+    void denseSketchIsRestoredFromBytes() {
+        HyperLogLog sketch = sketch(0, 100_000);
+
+        byte[] bytes = sketch.toBytes();
+
+        assertEquals(HyperLogLog.REGISTERS + 1, bytes.length);
+        assertArrayEquals(bytes, HyperLogLog.fromBytes(bytes).toBytes());
+        assertEquals(sketch.cardinality(), HyperLogLog.fromBytes(bytes).cardinality());
+    }
+
+    private static HyperLogLog sketch(int from, int to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            sketch.add(value(i));
+        }
+        return sketch;
+    }
+
+    private static byte[] value(int i) {
+        return ByteBuffer.allocate(4).putInt(i).array();
+    }
+}
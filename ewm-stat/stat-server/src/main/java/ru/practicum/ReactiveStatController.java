@@ -0,0 +1,286 @@
+package ru.practicum;
+
+import io.micrometer.core.lang.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+import ru.practicum.service.LiveStatsPublisher;
+import ru.practicum.service.StatService;
+import ru.practicum.util.exception.IngestOverloadedException;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Class non-blocking controller for statistics on Netty,
+ * used with spring.main.web-application-type=reactive.
+ * Contracts are the same as of {@link StatController}.
+ * Connections are served by a few event loop threads,
+ * calls of service are blocking JDBC, so they run on a dedicated bounded pool.
+ * With stat-server.ingest.mode=buffered hits only wait for the queue and are written in batches
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveStatController {
+    private final StatService statService;
+    private final LiveStatsPublisher liveStatsPublisher;
+    private final Scheduler jdbcScheduler;
+    private final long retryAfterSeconds;
+
+    @Autowired
+    public ReactiveStatController(StatService statService, LiveStatsPublisher liveStatsPublisher,
+                                  @Value("${stat-server.reactive.jdbc-threads:10}") int jdbcThreads,
+                                  @Value("${stat-server.reactive.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${stat-server.ingest.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.statService = statService;
+        this.liveStatsPublisher = liveStatsPublisher;
+        this.jdbcScheduler = Schedulers.newBoundedElastic(jdbcThreads, queueCapacity, "stat-jdbc");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @PreDestroy
+    public void close() {
+        jdbcScheduler.dispose();
+    }
+
+    /**
+     * POST handler to save new hit to statistics
+     *
+     * @param endpointHitDto to save
+     * @return saved object
+     */
+    @PostMapping("/hit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<EndpointHitDto> saveHit(@RequestBody EndpointHitDto endpointHitDto) {
+        return ingest(() -> statService.saveHit(endpointHitDto));
+    }
+
+    /**
+     * POST handler to save list of hits to statistics
+     * in one request
+     *
+     * @param endpointHitDtoList to save
+     * @return number of accepted hits per batch
+     */
+    @PostMapping("/hits")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<EndpointHitBatchResultDto> saveHits(@RequestBody List<EndpointHitDto> endpointHitDtoList) {
+        return ingest(() -> statService.saveHits(endpointHitDtoList));
+    }
+
+    /**
+     * GET statistics with parameters
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate used with unique=true,
+     *                    true - count unique IPs with HyperLogLog sketches
+     * @return list of statistics
+     */
+    @GetMapping("/stats")
+    public Mono<List<ViewStatsDto>> getStat(@RequestParam(value = "start") String start,
+                                            @RequestParam(value = "end") String end,
+                                            @RequestParam(value = "uris", required = false) @Nullable String[] uris,
+                                            @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique,
+                                            @RequestParam(value = "approximate", defaultValue = "false", required = false) boolean approximate) {
+        return query(() -> statService.getStat(start, end, uris, unique, approximate));
+    }
+
+    /**
+     * GET the most hit URIs of period
+     * All hits are counted by sketches, unique IPs are counted exactly for every URI of period
+     *
+     * @param start  of statistics
+     * @param end    of statistics
+     * @param n      number of URIs
+     * @param unique false - count all hits,
+     *               true - count only unique IPs
+     * @return list of statistics ordered by hits
+     */
+    @GetMapping("/stats/top")
+    public Mono<List<ViewStatsDto>> getTop(@RequestParam(value = "start") String start,
+                                           @RequestParam(value = "end") String end,
+                                           @RequestParam(value = "n", defaultValue = "10", required = false) int n,
+                                           @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique) {
+        return query(() -> statService.getTop(start, end, n, unique));
+    }
+
+    /**
+     * GET counts of hits and unique IPs of URI per time bucket
+     *
+     * @param uri      of statistics
+     * @param start    of statistics
+     * @param end      of statistics
+     * @param interval length of bucket: minute, hour or day
+     * @return statistics of buckets ordered by time
+     */
+    @GetMapping("/stats/series")
+    public Mono<List<ViewStatsSeriesDto>> getSeries(@RequestParam(value = "uri") String uri,
+                                                    @RequestParam(value = "start") String start,
+                                                    @RequestParam(value = "end") String end,
+                                                    @RequestParam(value = "interval", defaultValue = "hour", required = false) String interval) {
+        return query(() -> statService.getSeries(uri, start, end, interval));
+    }
+
+    /**
+     * GET HyperLogLog sketches of unique IPs per (app, uri)
+     *
+     * @param start of statistics
+     * @param end   of statistics
+     * @param uris  list of URIs of statistics
+     * @return list of sketches
+     */
+    @GetMapping("/stats/sketches")
+    public Mono<List<ViewStatsSketchDto>> getSketches(@RequestParam(value = "start") String start,
+                                                      @RequestParam(value = "end") String end,
+                                                      @RequestParam(value = "uris", required = false) @Nullable String[] uris) {
+        return query(() -> statService.getSketches(start, end, uris));
+    }
+
+    /**
+     * GET hits added since cursor per (app, uri)
+     * Without cursor only the current cursor is returned,
+     * expired cursor is answered with 410 and statistics should be loaded again
+     *
+     * @param cursor returned by the previous call
+     * @return added hits and cursor of the next call
+     */
+    @GetMapping("/stats/delta")
+    public Mono<ViewStatsDeltaDto> getDelta(@RequestParam(value = "cursor", required = false) @Nullable String cursor) {
+        return query(() -> statService.getDelta(cursor));
+    }
+
+    /**
+     * GET stream of live counts of hits and unique IPs of URIs as Server-Sent Events
+     * Client not reading updates is disconnected when its buffer is full.
+     * Updates are emitted by sender threads and completion by any thread cancelling subscription,
+     * emissions to the sink are serialized
+     *
+     * @param uris list of URIs of statistics
+     * @return stream of events with lists of counts
+     */
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<List<ViewStatsLiveDto>>> getStatUpdates(@RequestParam(value = "uris") String[] uris) {
+        Sinks.Many<List<ViewStatsLiveDto>> sink = Sinks.many().unicast()
+                .onBackpressureBuffer(Queues.<List<ViewStatsLiveDto>>get(liveStatsPublisher.getBufferSize()).get());
+        // Listener throwing cancels subscription, which completes the stream
+        LiveStatsPublisher.LiveSubscription subscription = liveStatsPublisher.subscribe(uris, stats -> {
+            if (emitSerialized(() -> sink.tryEmitNext(stats)).isFailure()) {
+                throw new IllegalStateException("Client does not read updates.");
+            }
+        }, () -> emitSerialized(sink::tryEmitComplete));
+        return sink.asFlux()
+                .map(stats -> ServerSentEvent.builder(stats).event("stats").build())
+                .take(Duration.ofMillis(liveStatsPublisher.getTimeoutMs()))
+                .doFinally(signal -> subscription.cancel());
+    }
+
+    /**
+     * GET statistics with parameters
+     * as stream of JSON lines, one row per line.
+     * Rows are read from database cursor as client requests them,
+     * reading is stopped when client cancels stream
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate used with unique=true,
+     *                    true - count unique IPs with HyperLogLog sketches
+     * @return stream of statistics
+     */
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ViewStatsDto> getStatStream(@RequestParam(value = "start") String start,
+                                            @RequestParam(value = "end") String end,
+                                            @RequestParam(value = "uris", required = false) @Nullable String[] uris,
+                                            @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique,
+                                            @RequestParam(value = "approximate", defaultValue = "false", required = false) boolean approximate) {
+        return Flux.<ViewStatsDto>create(sink -> {
+            Object demand = new Object();
+            sink.onRequest(n -> wakeUp(demand));
+            sink.onCancel(() -> wakeUp(demand));
+            try {
+                statService.streamStat(start, end, uris, unique, approximate, stat -> {
+                    awaitDemand(sink, demand);
+                    sink.next(stat);
+                });
+                sink.complete();
+            } catch (RuntimeException e) {
+                // Reading of cursor is stopped when client cancels stream
+                if (!sink.isCancelled()) {
+                    throw e;
+                }
+            }
+        }, FluxSink.OverflowStrategy.ERROR).subscribeOn(jdbcScheduler, false);
+    }
+
+    /**
+     * Retry emission while another thread is emitting to the same sink
+     */
+    private static Sinks.EmitResult emitSerialized(Supplier<Sinks.EmitResult> emission) {
+        Sinks.EmitResult result;
+        while ((result = emission.get()) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            Thread.onSpinWait();
+        }
+        return result;
+    }
+
+    /**
+     * Rows are read from cursor only as client requests them,
+     * so the pool thread waits for slow clients instead of buffering rows.
+     * Requests are not scheduled to the waiting thread, it would never take them
+     */
+    private static void awaitDemand(FluxSink<ViewStatsDto> sink, Object demand) {
+        synchronized (demand) {
+            while (sink.requestedFromDownstream() == 0 && !sink.isCancelled()) {
+                try {
+                    demand.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Stream of statistics is interrupted.");
+                }
+            }
+        }
+        if (sink.isCancelled()) {
+            throw new CancellationException("Stream of statistics is cancelled.");
+        }
+    }
+
+    private static void wakeUp(Object demand) {
+        synchronized (demand) {
+            demand.notifyAll();
+        }
+    }
+
+    /**
+     * Hits waiting for the pool over its queue are rejected as by admission control
+     */
+    private <T> Mono<T> ingest(Callable<T> call) {
+        return query(call).onErrorMap(RejectedExecutionException.class, e ->
+                new IngestOverloadedException("Too many hits are waiting to be written.", retryAfterSeconds));
+    }
+
+    private <T> Mono<T> query(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(jdbcScheduler);
+    }
+}
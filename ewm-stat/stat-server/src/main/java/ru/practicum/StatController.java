@@ -1,23 +1,53 @@
 package ru.practicum;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.lang.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.practicum.service.LiveStatsPublisher;
 import ru.practicum.service.StatService;
 
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class controller for statistics
+ * Used by servlet stack, see {@link ReactiveStatController} for non-blocking one
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class StatController {
     private final StatService statService;
+    private final LiveStatsPublisher liveStatsPublisher;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter ndjsonWriter;
+    private final Timer ndjsonTimer;
 
     @Autowired
-    public StatController(StatService statService) {
+    public StatController(StatService statService, LiveStatsPublisher liveStatsPublisher,
+                          ObjectMapper objectMapper, MeterRegistry meterRegistry) {
         this.statService = statService;
+        this.liveStatsPublisher = liveStatsPublisher;
+        this.objectMapper = objectMapper;
+        this.ndjsonWriter = objectMapper.writerFor(ViewStatsDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.ndjsonTimer = Timer.builder("stat.serialize")
+                .description("Time of serialization of response")
+                .tag("format", "ndjson")
+                .register(meterRegistry);
     }
 
     /**
@@ -32,22 +62,187 @@ public class StatController {
         return statService.saveHit(endpointHitDto);
     }
 
+    /**
+     * POST handler to save list of hits to statistics
+     * in one request
+     *
+     * @param endpointHitDtoList to save
+     * @return number of accepted hits per batch
+     */
+    @PostMapping("/hits")
+    @ResponseStatus(HttpStatus.CREATED)
+    public EndpointHitBatchResultDto saveHits(@RequestBody List<EndpointHitDto> endpointHitDtoList) {
+        return statService.saveHits(endpointHitDtoList);
+    }
+
     /**
      * GET statistics with parameters
      *
-     * @param start  of statistics
-     * @param end    of statistics
-     * @param uris   list of URIs of statistics
-     * @param unique false - no need to show stats with unique IPs,
-     *               true - show stats only with unique IPs
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate used with unique=true,
+     *                    true - count unique IPs with HyperLogLog sketches
+     *                    (standard error about 1.6%, almost exact below ~10000 IPs),
+     *                    false - exact count
      * @return list of statistics
      */
     @GetMapping("/stats")
     public List<ViewStatsDto> getStat(@RequestParam(value = "start") String start,
                                       @RequestParam(value = "end") String end,
                                       @RequestParam(value = "uris", required = false) @Nullable String[] uris,
-                                      @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique) {
-        return statService.getStat(start, end, uris, unique);
+                                      @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique,
+                                      @RequestParam(value = "approximate", defaultValue = "false", required = false) boolean approximate) {
+        return statService.getStat(start, end, uris, unique, approximate);
+    }
+
+    /**
+     * GET the most hit URIs of period
+     * All hits are counted by sketches, so counts may be slightly overestimated
+     * and period is widened to whole hours.
+     * Unique IPs are counted exactly as by /stats for every URI of period, then the first n are returned,
+     * so cost grows with the number of URIs of period
+     *
+     * @param start  of statistics
+     * @param end    of statistics
+     * @param n      number of URIs
+     * @param unique false - count all hits,
+     *               true - count only unique IPs
+     * @return list of statistics ordered by hits
+     */
+    @GetMapping("/stats/top")
+    public List<ViewStatsDto> getTop(@RequestParam(value = "start") String start,
+                                     @RequestParam(value = "end") String end,
+                                     @RequestParam(value = "n", defaultValue = "10", required = false) int n,
+                                     @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique) {
+        return statService.getTop(start, end, n, unique);
+    }
+
+    /**
+     * GET counts of hits and unique IPs of URI per time bucket
+     * Period is widened to whole buckets, every bucket of period is returned
+     *
+     * @param uri      of statistics
+     * @param start    of statistics
+     * @param end      of statistics
+     * @param interval length of bucket: minute, hour or day
+     * @return statistics of buckets ordered by time
+     */
+    @GetMapping("/stats/series")
+    public List<ViewStatsSeriesDto> getSeries(@RequestParam(value = "uri") String uri,
+                                              @RequestParam(value = "start") String start,
+                                              @RequestParam(value = "end") String end,
+                                              @RequestParam(value = "interval", defaultValue = "hour", required = false) String interval) {
+        return statService.getSeries(uri, start, end, interval);
+    }
+
+    /**
+     * GET HyperLogLog sketches of unique IPs per (app, uri)
+     * Used by sharded clients to merge unique IPs of groups stored on several servers
+     *
+     * @param start of statistics
+     * @param end   of statistics
+     * @param uris  list of URIs of statistics
+     * @return list of sketches
+     */
+    @GetMapping("/stats/sketches")
+    public List<ViewStatsSketchDto> getSketches(@RequestParam(value = "start") String start,
+                                                @RequestParam(value = "end") String end,
+                                                @RequestParam(value = "uris", required = false) @Nullable String[] uris) {
+        return statService.getSketches(start, end, uris);
+    }
+
+    /**
+     * GET hits added since cursor per (app, uri)
+     * Without cursor only the current cursor is returned,
+     * expired cursor is answered with 410 and statistics should be loaded again
+     *
+     * @param cursor returned by the previous call
+     * @return added hits and cursor of the next call
+     */
+    @GetMapping("/stats/delta")
+    public ViewStatsDeltaDto getDelta(@RequestParam(value = "cursor", required = false) @Nullable String cursor) {
+        return statService.getDelta(cursor);
+    }
+
+    /**
+     * GET stream of live counts of hits and unique IPs of URIs as Server-Sent Events
+     * Counts of all URIs are sent first, then counts of changed URIs once per tick.
+     * Stream is closed after timeout, client should connect again.
+     * Client not reading updates is disconnected when its buffer is full
+     *
+     * @param uris list of URIs of statistics
+     * @return stream of events with lists of counts
+     */
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getStatUpdates(@RequestParam(value = "uris") String[] uris) {
+        SseEmitter emitter = new SseEmitter(liveStatsPublisher.getTimeoutMs());
+        LiveStatsPublisher.LiveSubscription subscription = liveStatsPublisher.subscribe(uris, stats -> {
+            try {
+                emitter.send(SseEmitter.event().name("stats").data(stats, MediaType.APPLICATION_JSON));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, emitter::complete);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * GET statistics with parameters
+     * as stream of JSON lines, one row per line.
+     * Rows are written to response as they are read from database cursor
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate used with unique=true,
+     *                    true - count unique IPs with HyperLogLog sketches
+     * @param response    to write statistics to
+     */
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void getStatStream(@RequestParam(value = "start") String start,
+                              @RequestParam(value = "end") String end,
+                              @RequestParam(value = "uris", required = false) @Nullable String[] uris,
+                              @RequestParam(value = "unique", defaultValue = "false", required = false) boolean unique,
+                              @RequestParam(value = "approximate", defaultValue = "false", required = false) boolean approximate,
+                              HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        // Generator is not closed, servlet container closes response stream itself
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        generator.setRootValueSeparator(null);
+        // Rows are written while they are read, so time of writing is summed row by row
+        long[] serializeNanos = new long[1];
+        try {
+            statService.streamStat(start, end, uris, unique, approximate, viewStatsDto -> {
+                long startNanos = System.nanoTime();
+                try {
+                    ndjsonWriter.writeValue(generator, viewStatsDto);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    serializeNanos[0] += System.nanoTime() - startNanos;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            // Nothing is sent yet, error handler writes response as usual
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+            throw e;
+        }
+        long startNanos = System.nanoTime();
+        generator.flush();
+        ndjsonTimer.record(serializeNanos[0] + System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
     }
 
 }
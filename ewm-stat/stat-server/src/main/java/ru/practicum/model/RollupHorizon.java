@@ -0,0 +1,79 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Class times since which raw hits and rollup levels are kept.
+ * Every time is aligned to buckets of the next coarser level,
+ * null - kept for all time
+ */
+public class RollupHorizon {
+    public static final RollupHorizon NONE = new RollupHorizon(null, Map.of());
+
+    private final LocalDateTime rawFrom;
+    private final Map<RollupLevel, LocalDateTime> levelFrom;
+
+    /**
+     * @param rawFrom   time of the oldest raw hit, null if none were removed
+     * @param levelFrom time of the oldest bucket of levels with removed buckets
+     */
+    public RollupHorizon(LocalDateTime rawFrom, Map<RollupLevel, LocalDateTime> levelFrom) {
+        this.rawFrom = rawFrom;
+        this.levelFrom = levelFrom.isEmpty() ? Map.of() : new EnumMap<>(levelFrom);
+    }
+
+    /**
+     * Copy horizon with other time since which level is kept
+     *
+     * @param level of rollup
+     * @param from  time of the oldest kept bucket, null - keep horizon of level
+     * @return horizon
+     */
+    public RollupHorizon withLevelFrom(RollupLevel level, LocalDateTime from) {
+        if (from == null) {
+            return this;
+        }
+        Map<RollupLevel, LocalDateTime> levels = new EnumMap<>(RollupLevel.class);
+        levels.putAll(levelFrom);
+        levels.put(level, from);
+        return new RollupHorizon(rawFrom, levels);
+    }
+
+    /**
+     * Time since which level is kept
+     *
+     * @param level of rollup, null for raw hits
+     * @return time of the oldest kept bucket or raw hit, null if nothing was removed
+     */
+    public LocalDateTime getFrom(RollupLevel level) {
+        return level == null ? rawFrom : levelFrom.get(level);
+    }
+
+    /**
+     * Check if level is kept since time
+     *
+     * @param level of rollup, null for raw hits
+     * @param time  to check
+     * @return true if nothing was removed since time
+     */
+    public boolean isKept(RollupLevel level, LocalDateTime time) {
+        LocalDateTime from = getFrom(level);
+        return from == null || !time.isBefore(from);
+    }
+
+    /**
+     * Times after which more data is kept
+     *
+     * @return ordered times
+     */
+    public TreeSet<LocalDateTime> getCuts() {
+        TreeSet<LocalDateTime> cuts = new TreeSet<>(levelFrom.values());
+        if (rawFrom != null) {
+            cuts.add(rawFrom);
+        }
+        return cuts;
+    }
+}
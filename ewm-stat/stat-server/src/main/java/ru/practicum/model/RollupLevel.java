@@ -0,0 +1,61 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Enum of time bucket levels of rollup tables
+ * from the coarsest to the finest one
+ */
+public enum RollupLevel {
+    MONTH("month", ChronoUnit.MONTHS),
+    DAY("day", ChronoUnit.DAYS),
+    HOUR("hour", ChronoUnit.HOURS),
+    MINUTE("minute", ChronoUnit.MINUTES);
+
+    private final String suffix;
+    private final ChronoUnit unit;
+
+    RollupLevel(String suffix, ChronoUnit unit) {
+        this.suffix = suffix;
+        this.unit = unit;
+    }
+
+    /**
+     * Name of table of the level
+     *
+     * @param prefix of table
+     * @return table name
+     */
+    public String getTable(String prefix) {
+        return prefix + suffix;
+    }
+
+    public ChronoUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * Start of the bucket with the time
+     *
+     * @param time to truncate
+     * @return start of the bucket
+     */
+    public LocalDateTime floor(LocalDateTime time) {
+        if (unit == ChronoUnit.MONTHS) {
+            return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+        }
+        return time.truncatedTo(unit);
+    }
+
+    /**
+     * Start of the first bucket which begins not before the time
+     *
+     * @param time to round up
+     * @return start of the bucket
+     */
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.equals(time) ? floor : floor.plus(1, unit);
+    }
+}
@@ -0,0 +1,22 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Class with part of requested time range
+ * answered by one rollup level or by raw hits.
+ * Range is half-open: [from, to)
+ */
+@Data
+@AllArgsConstructor
+public class RollupSegment {
+    /**
+     * Level of rollup, null for raw hits
+     */
+    private RollupLevel level;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
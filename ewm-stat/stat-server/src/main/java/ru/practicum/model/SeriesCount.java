@@ -0,0 +1,16 @@
+package ru.practicum.model;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Class with counts of hits and unique IPs
+ * of one time bucket
+ */
+@Value
+public class SeriesCount {
+    LocalDateTime bucket;
+    long hits;
+    long uniqueHits;
+}
@@ -0,0 +1,14 @@
+package ru.practicum.model;
+
+import lombok.Value;
+
+/**
+ * Class with count of hits of statistics group
+ * keyed by ids of app and URI
+ */
+@Value
+public class StatCount {
+    int appId;
+    int uriId;
+    long hits;
+}
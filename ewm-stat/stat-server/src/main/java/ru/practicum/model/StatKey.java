@@ -0,0 +1,13 @@
+package ru.practicum.model;
+
+import lombok.Value;
+
+/**
+ * Class key of statistics group
+ * by ids of app and URI
+ */
+@Value
+public class StatKey {
+    int appId;
+    int uriId;
+}
@@ -1,6 +1,7 @@
 package ru.practicum.model;
 
 import ru.practicum.EndpointHitDto;
+import ru.practicum.util.IpConverter;
 
 import java.time.LocalDateTime;
 
@@ -26,7 +27,7 @@ public class StatMapper {
         return Statistics.builder()
                 .app(endpointHitDto.getApp())
                 .uri(endpointHitDto.getUri())
-                .ip(endpointHitDto.getIp())
+                .ip(IpConverter.toBytes(endpointHitDto.getIp()))
                 .timeStamp(LocalDateTime.parse(timeStamp, FORMATTER))
                 .build();
     }
@@ -41,7 +42,7 @@ public class StatMapper {
         return EndpointHitDto.builder()
                 .app(statistics.getApp())
                 .uri(statistics.getUri())
-                .ip(statistics.getIp())
+                .ip(IpConverter.toString(statistics.getIp()))
                 .timeStamp(statistics.getTimeStamp().format(FORMATTER))
                 .build();
     }
@@ -9,6 +9,8 @@ import java.time.LocalDateTime;
 
 /**
  * Class with statistics components
+ * App and URI are stored as ids of dictionaries,
+ * IP is stored as bytes of address
  */
 @Data
 @Builder
@@ -19,10 +21,18 @@ public class Statistics {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
     private int id;
-    @Column(name = "service")
-    private String app;
-    private String uri;
-    private String ip;
+    @Column(name = "app_id")
+    private int appId;
+    @Column(name = "uri_id")
+    private int uriId;
+    private byte[] ip;
     @Column(name = "time_stamp")
     private LocalDateTime timeStamp;
+    @Transient
+    private String app;
+    @Transient
+    private String uri;
+    // Id of IPv6 dictionary, it is used by bitmaps of unique IPs
+    @Transient
+    private int ipv6Id;
 }
@@ -0,0 +1,115 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.WatermarkRepository;
+import ru.practicum.util.IpConverter;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+
+/**
+ * Class job merging pending bitmaps into bitmaps of days
+ * and building bitmaps of days written before bitmaps were enabled.
+ * Days are built from the newest one back, one day per run,
+ * watermark is the oldest day with complete bitmaps,
+ * queries read raw hits of older days, compaction and retention do not remove raw hits until all days are built.
+ * Not used in segment storage mode.
+ */
+@Slf4j
+@Component
+public class BitmapMerger {
+    private final BitmapRepository bitmapRepository;
+    private final WatermarkRepository watermarkRepository;
+    private final StatDictionary statDictionary;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int mergeChunk;
+
+    private volatile LocalDateTime builtFrom;
+    private volatile boolean built;
+
+    @Autowired
+    public BitmapMerger(BitmapRepository bitmapRepository, WatermarkRepository watermarkRepository,
+                        StatDictionary statDictionary, TransactionTemplate transactionTemplate,
+                        SegmentHitStore segmentHitStore,
+                        @Value("${stat-server.bitmaps.merge-chunk:1000}") int mergeChunk) {
+        this.bitmapRepository = bitmapRepository;
+        this.watermarkRepository = watermarkRepository;
+        this.statDictionary = statDictionary;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = bitmapRepository.isEnabled() && !segmentHitStore.isEnabled();
+        this.mergeChunk = mergeChunk;
+    }
+
+    /**
+     * Load saved watermark
+     * On the first start bitmaps are complete only since the day after the newest raw hit
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        builtFrom = watermarkRepository.get(WatermarkRepository.BITMAP);
+        if (builtFrom == null) {
+            LocalDateTime newest = bitmapRepository.findNewestHit(null);
+            LocalDateTime now = LocalDateTime.now();
+            builtFrom = RollupLevel.DAY.floor(newest != null && newest.isAfter(now) ? newest : now).plusDays(1);
+            watermarkRepository.set(WatermarkRepository.BITMAP, builtFrom);
+        }
+        built = bitmapRepository.findNewestHit(builtFrom) == null;
+    }
+
+    /**
+     * Time since which bitmaps of days are complete
+     *
+     * @return start of the oldest built day or null if bitmaps of all days are built
+     */
+    public LocalDateTime getBuiltFrom() {
+        return enabled && !built ? builtFrom : null;
+    }
+
+    /**
+     * Merge pending bitmaps in chunks and build bitmaps of one old day
+     * Every chunk is merged in its own transaction
+     */
+    @Scheduled(fixedDelayString = "${stat-server.bitmaps.merge-interval-ms:1000}")
+    public void merge() {
+        if (!enabled) {
+            return;
+        }
+        Integer merged;
+        do {
+            merged = transactionTemplate.execute(status -> bitmapRepository.mergePending(mergeChunk));
+        } while (merged != null && merged == mergeChunk);
+
+        if (!built) {
+            build();
+        }
+    }
+
+    private void build() {
+        LocalDateTime newest = bitmapRepository.findNewestHit(builtFrom);
+        if (newest == null) {
+            built = true;
+            log.info("Built bitmaps of all days with raw hits");
+            return;
+        }
+        // Bitmaps are merged by OR, so a day built again after failure is not counted twice.
+        // Not in transaction, IPv6 addresses are added to dictionary
+        LocalDateTime day = RollupLevel.DAY.floor(newest);
+        int added = bitmapRepository.backfill(day, day.plusDays(1),
+                ip -> statDictionary.getIpv6Id(IpConverter.toString(ip)));
+        watermarkRepository.set(WatermarkRepository.BITMAP, day);
+        builtFrom = day;
+        log.info("Built {} bitmaps of {}", added, day.toLocalDate());
+    }
+}
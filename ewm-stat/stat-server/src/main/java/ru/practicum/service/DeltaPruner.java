@@ -0,0 +1,54 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.storage.DeltaRepository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Class job removing old changes of hit counts and renewing lease of their log.
+ * Consumers polling less often than the retention get 410 for their cursors
+ * and load full statistics again
+ */
+@Slf4j
+@Component
+public class DeltaPruner {
+    private final DeltaRepository deltaRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int retentionMinutes;
+
+    @Autowired
+    public DeltaPruner(DeltaRepository deltaRepository, TransactionTemplate transactionTemplate,
+                       @Value("${stat-server.delta.retention-minutes:1440}") int retentionMinutes) {
+        this.deltaRepository = deltaRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.retentionMinutes = retentionMinutes;
+    }
+
+    /**
+     * Remove changes older than the retention
+     */
+    @Scheduled(fixedDelayString = "${stat-server.delta.prune-interval-ms:60000}")
+    public void prune() {
+        Integer deleted = transactionTemplate.execute(status ->
+                deltaRepository.prune(LocalDateTime.now().minusMinutes(retentionMinutes)));
+        if (deleted != null && deleted > 0) {
+            log.info("Removed {} changes of hit counts", deleted);
+        }
+    }
+
+    /**
+     * Renew lease of the log of changes, hits are not written without it
+     */
+    @Scheduled(fixedDelayString = "${stat-server.delta.lease-renew-interval-ms:10000}")
+    public void renewLease() {
+        if (!deltaRepository.renewLease()) {
+            log.error("Lease of log of changes of hit counts is taken by another stat server");
+        }
+    }
+}
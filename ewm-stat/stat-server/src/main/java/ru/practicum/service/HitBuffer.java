@@ -0,0 +1,223 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.Statistics;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class bounded in-memory buffer of hits
+ * for buffered ingestion mode.
+ * Background writer commits hits in groups by size or by time,
+ * whichever comes first.
+ * Lag of group is the time from offer of its oldest hit to commit.
+ * Failed group is written again with doubling backoff, meanwhile the queue fills up
+ * and new hits are written synchronously. Group failed every attempt is dropped and counted.
+ */
+@Slf4j
+@Component
+public class HitBuffer {
+    private final HitWriter hitWriter;
+    private final boolean enabled;
+    private final BlockingQueue<BufferedHit> queue;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final long shutdownTimeoutMillis;
+    private final int retryAttempts;
+    private final long retryBackoffMillis;
+    private final Timer lagTimer;
+    private final Counter droppedCounter;
+    // Hits collected by interrupted writer, written by stop after the writer has ended
+    private final List<BufferedHit> unwritten = new ArrayList<>();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    @Autowired
+    public HitBuffer(HitWriter hitWriter,
+                     @Value("${stat-server.ingest.mode:sync}") String mode,
+                     @Value("${stat-server.ingest.buffer.capacity:10000}") int capacity,
+                     @Value("${stat-server.ingest.buffer.flush-size:500}") int flushSize,
+                     @Value("${stat-server.ingest.buffer.flush-interval-ms:200}") long flushIntervalMillis,
+                     @Value("${stat-server.ingest.buffer.shutdown-timeout-ms:10000}") long shutdownTimeoutMillis,
+                     @Value("${stat-server.ingest.buffer.retry-attempts:5}") int retryAttempts,
+                     @Value("${stat-server.ingest.buffer.retry-backoff-ms:100}") long retryBackoffMillis,
+                     MeterRegistry meterRegistry) {
+        this.hitWriter = hitWriter;
+        this.enabled = "buffered".equalsIgnoreCase(mode);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.retryAttempts = Math.max(1, retryAttempts);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.lagTimer = Timer.builder("stat.ingest.buffer.lag")
+                .description("Time from offer of the oldest hit of group to its commit")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("stat.ingest.buffer.dropped")
+                .description("Acknowledged hits not written after all attempts")
+                .register(meterRegistry);
+        meterRegistry.gauge("stat.ingest.buffer.depth", queue, BlockingQueue::size);
+    }
+
+    /**
+     * Start background writer
+     * if buffered mode is on
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::runWriter, "stat-hit-writer");
+        writerThread.start();
+    }
+
+    /**
+     * Stop accepting hits and write the rest of the queue.
+     * Writer not finished in time is interrupted, a group failed while it is interrupted is dropped and counted,
+     * collected groups and the rest of the queue are written here after the writer has stopped
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        writerThread.join(shutdownTimeoutMillis);
+        if (writerThread.isAlive()) {
+            log.warn("Writer of buffered hits did not finish in {} ms, it is interrupted", shutdownTimeoutMillis);
+            writerThread.interrupt();
+            // Storage is closed after this bean, so no write may outlive it
+            writerThread.join();
+        }
+
+        List<BufferedHit> rest = new ArrayList<>(unwritten);
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    /**
+     * Check if buffered mode is on
+     *
+     * @return true if hits should be offered to the buffer
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Put hit to the queue without waiting
+     *
+     * @param hit to put
+     * @return false if the queue is full or buffer is stopped
+     */
+    public boolean offer(Statistics hit) {
+        return running && queue.offer(new BufferedHit(hit, System.nanoTime()));
+    }
+
+    /**
+     * Number of hits waiting for the writer
+     *
+     * @return queue size
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    private void runWriter() {
+        List<BufferedHit> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                BufferedHit first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Collect the group until it is full or the interval is over
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    BufferedHit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                unwritten.addAll(batch);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<BufferedHit> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Statistics> hits = new ArrayList<>(batch.size());
+        long oldest = batch.get(0).getOfferedNanos();
+        for (BufferedHit hit : batch) {
+            hits.add(hit.getHit());
+            oldest = Math.min(oldest, hit.getOfferedNanos());
+        }
+        long backoff = retryBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                hitWriter.write(hits);
+                lagTimer.record(System.nanoTime() - oldest, TimeUnit.NANOSECONDS);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= retryAttempts) {
+                    log.error("Failed to write {} buffered hits, they are dropped", hits.size(), e);
+                    droppedCounter.increment(hits.size());
+                    return;
+                }
+                log.warn("Failed to write {} buffered hits, attempt {} of {}: {}", hits.size(), attempt,
+                        retryAttempts, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Writing of {} buffered hits is interrupted, they are dropped", hits.size());
+                droppedCounter.increment(hits.size());
+                return;
+            }
+            backoff *= 2;
+        }
+    }
+
+    /**
+     * Class hit in the queue with time of offer
+     */
+    @Data
+    private static class BufferedHit {
+        private final Statistics hit;
+        private final long offeredNanos;
+    }
+}
@@ -0,0 +1,132 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.Statistics;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.ColumnarHitWindow;
+import ru.practicum.storage.DeltaRepository;
+import ru.practicum.storage.HitBatchRepository;
+import ru.practicum.storage.RollupRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.SketchRepository;
+import ru.practicum.util.IpConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class writer of hits to statistics storage
+ * used by every ingestion mode.
+ * Ids of apps, URIs and IPv6 addresses are resolved before the transaction,
+ * rollups are updated and pending sketches and bitmaps are inserted in the same transaction with raw hits.
+ * In segment storage mode raw hits are appended to segment files only.
+ * Counts of hits are added to log of changes under a sequence number taken before the transaction.
+ * After commit hits are added to in-memory window and top hits sketches
+ * and cached statistics containing hits are invalidated.
+ */
+@Component
+public class HitWriter {
+    private final HitBatchRepository hitBatchRepository;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final BitmapRepository bitmapRepository;
+    private final SegmentHitStore segmentHitStore;
+    private final DeltaRepository deltaRepository;
+    private final StatDictionary statDictionary;
+    private final ColumnarHitWindow hitWindow;
+    private final TopHitsTracker topHitsTracker;
+    private final StatCache statCache;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Counter hitCounter;
+    private final Timer writeTimer;
+
+    @Autowired
+    public HitWriter(HitBatchRepository hitBatchRepository, RollupRepository rollupRepository,
+                     SketchRepository sketchRepository, BitmapRepository bitmapRepository,
+                     SegmentHitStore segmentHitStore, DeltaRepository deltaRepository,
+                     StatDictionary statDictionary,
+                     ColumnarHitWindow hitWindow, TopHitsTracker topHitsTracker, StatCache statCache,
+                     TransactionTemplate transactionTemplate,
+                     @Value("${stat-server.hits.batch-size:500}") int batchSize,
+                     MeterRegistry meterRegistry) {
+        this.hitBatchRepository = hitBatchRepository;
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.bitmapRepository = bitmapRepository;
+        this.segmentHitStore = segmentHitStore;
+        this.deltaRepository = deltaRepository;
+        this.statDictionary = statDictionary;
+        this.hitWindow = hitWindow;
+        this.topHitsTracker = topHitsTracker;
+        this.statCache = statCache;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        String storage = segmentHitStore.isEnabled() ? "segment" : "jdbc";
+        this.hitCounter = meterRegistry.counter("stat.ingest.hits", "storage", storage);
+        this.writeTimer = Timer.builder("stat.ingest.write")
+                .description("Time of writing group of hits to storage")
+                .tag("storage", storage)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Write hits in one transaction
+     * with JDBC batches
+     *
+     * @param hits to write
+     * @return number of written hits per batch
+     */
+    public List<Integer> write(List<Statistics> hits) {
+        for (Statistics hit : hits) {
+            hit.setAppId(statDictionary.getAppId(hit.getApp()));
+            hit.setUriId(statDictionary.getUriId(hit.getUri()));
+            if (bitmapRepository.isEnabled() && hit.getIp().length == 16) {
+                hit.setIpv6Id(statDictionary.getIpv6Id(IpConverter.toString(hit.getIp())));
+            }
+        }
+
+        List<Integer> batches;
+        long startNanos = System.nanoTime();
+        long seq = deltaRepository.start();
+        try {
+            if (segmentHitStore.isEnabled()) {
+                // Segments are scanned by queries, rollups and sketches are not needed
+                segmentHitStore.append(hits);
+                batches = new ArrayList<>();
+                for (int i = 0; i < hits.size(); i += batchSize) {
+                    batches.add(Math.min(batchSize, hits.size() - i));
+                }
+                transactionTemplate.executeWithoutResult(status -> deltaRepository.add(seq, hits));
+            } else {
+                batches = transactionTemplate.execute(status -> {
+                    List<Integer> result = hitBatchRepository.saveAll(hits, batchSize);
+                    rollupRepository.add(hits);
+                    sketchRepository.add(hits);
+                    if (bitmapRepository.isEnabled()) {
+                        bitmapRepository.add(hits);
+                    }
+                    deltaRepository.add(seq, hits);
+                    return result;
+                });
+            }
+        } finally {
+            // After commit or rollback, changes up to the number become visible to cursors
+            deltaRepository.complete(seq);
+        }
+        writeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        hitCounter.increment(hits.size());
+        // After commit, so cached statistics are not loaded again before hits are visible
+        hitWindow.add(hits);
+        topHitsTracker.add(hits);
+        statCache.invalidate(hits);
+        return batches;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.util.exception.IngestOverloadedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Class admission control of synchronous writes of hits.
+ * Number of concurrent writes is limited below the size of connection pool,
+ * so queries always have free connections.
+ * Writes over the limit wait for a short time and are rejected,
+ * rejected hits are counted by endpoint
+ */
+@Component
+public class IngestLimiter {
+    private final boolean enabled;
+    private final Semaphore permits;
+    private final long acquireTimeoutMillis;
+    private final long retryAfterSeconds;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public IngestLimiter(@Value("${stat-server.ingest.max-concurrent-writes:4}") int maxConcurrentWrites,
+                         @Value("${stat-server.ingest.acquire-timeout-ms:50}") long acquireTimeoutMillis,
+                         @Value("${stat-server.ingest.retry-after-seconds:1}") long retryAfterSeconds,
+                         MeterRegistry meterRegistry) {
+        this.enabled = maxConcurrentWrites > 0;
+        this.permits = new Semaphore(Math.max(maxConcurrentWrites, 0));
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.meterRegistry = meterRegistry;
+        if (enabled) {
+            meterRegistry.gauge("stat.ingest.writes.available", permits, Semaphore::availablePermits);
+        }
+    }
+
+    /**
+     * Run write if there is a free permit
+     *
+     * @param endpoint name of endpoint for metrics
+     * @param hits     number of hits of write
+     * @param write    to run
+     * @return result of write
+     * @throws IngestOverloadedException if no permit was acquired in time
+     */
+    public <T> T write(String endpoint, int hits, Supplier<T> write) {
+        if (!enabled) {
+            return write.get();
+        }
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            meterRegistry.counter("stat.ingest.rejected", "endpoint", endpoint).increment(hits);
+            throw new IngestOverloadedException("Too many concurrent writes of hits.", retryAfterSeconds);
+        }
+        try {
+            return write.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ViewStatsDeltaDto;
+import ru.practicum.ViewStatsDto;
+import ru.practicum.ViewStatsLiveDto;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.util.exception.CursorExpiredException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static ru.practicum.util.Util.FORMATTER;
+
+/**
+ * Class publisher of live counts of hits and unique IPs to subscribers of URIs.
+ * Once per tick changed URIs are found by the log of changes since the previous tick,
+ * counts of changed URIs of all subscribers are loaded by one query of hits and one of unique IPs,
+ * and every subscriber gets one update with its changed URIs.
+ * New subscribers get counts of all their URIs on the next tick.
+ * Ticks run on their own thread, updates are put to bounded queues of subscribers
+ * and sent by a pool of sender threads, so a slow subscriber delays neither ticks nor other jobs.
+ * Subscriber whose queue is full is cancelled
+ */
+@Slf4j
+@Component
+public class LiveStatsPublisher {
+    private final StatService statService;
+    private final int periodDays;
+    private final long timeoutMs;
+    private final long intervalMs;
+    private final int bufferSize;
+    private final List<LiveSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sender;
+    private final Counter overflowCounter;
+
+    // Cursor of changes, read only by scheduler thread
+    private String cursor;
+
+    @Autowired
+    public LiveStatsPublisher(StatService statService,
+                              @Value("${stat-server.stream.period-days:3650}") int periodDays,
+                              @Value("${stat-server.stream.timeout-ms:600000}") long timeoutMs,
+                              @Value("${stat-server.stream.interval-ms:1000}") long intervalMs,
+                              @Value("${stat-server.stream.buffer-size:16}") int bufferSize,
+                              @Value("${stat-server.stream.sender-threads:4}") int senderThreads,
+                              MeterRegistry meterRegistry) {
+        this.statService = statService;
+        this.periodDays = periodDays;
+        this.timeoutMs = timeoutMs;
+        this.intervalMs = intervalMs;
+        this.bufferSize = bufferSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stat-stream-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "stat-stream-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.overflowCounter = meterRegistry.counter("stat.stream.overflows");
+        meterRegistry.gaugeCollectionSize("stat.stream.subscribers", List.of(), subscriptions);
+    }
+
+    /**
+     * Start ticks
+     */
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                publish();
+            } catch (RuntimeException e) {
+                log.warn("Failed to publish live statistics", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop ticks and sending of updates
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    /**
+     * Time after which stream is closed and client should connect again
+     *
+     * @return timeout in milliseconds
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Number of unsent updates after which subscriber is disconnected
+     *
+     * @return size of buffer of subscriber
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Subscribe to counts of URIs
+     * Listener is called by sender threads, one update of subscription at a time.
+     * Subscription is cancelled if listener throws or does not keep up with updates
+     *
+     * @param uris     to watch
+     * @param listener of changed counts
+     * @param onCancel called once when subscription is cancelled
+     * @return subscription to cancel
+     */
+    public LiveSubscription subscribe(String[] uris, Consumer<List<ViewStatsLiveDto>> listener, Runnable onCancel) {
+        LiveSubscription subscription = new LiveSubscription(new LinkedHashSet<>(Arrays.asList(uris)), listener,
+                onCancel);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Send changed counts to subscribers
+     */
+    void publish() {
+        List<LiveSubscription> current = List.copyOf(subscriptions);
+        if (current.isEmpty()) {
+            // Changes are not followed without subscribers, new ones get all counts anyway
+            cursor = null;
+            return;
+        }
+
+        Set<String> changed = findChangedUris();
+        Set<String> uris = new HashSet<>();
+        for (LiveSubscription subscription : current) {
+            for (String uri : subscription.uris) {
+                if (subscription.initial || changed == null || changed.contains(uri)) {
+                    uris.add(uri);
+                }
+            }
+        }
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<ViewStatsLiveDto>> stats = load(uris.toArray(new String[0]));
+        for (LiveSubscription subscription : current) {
+            boolean all = subscription.initial || changed == null;
+            List<ViewStatsLiveDto> update = new ArrayList<>();
+            for (String uri : subscription.uris) {
+                if (all || changed.contains(uri)) {
+                    update.addAll(stats.getOrDefault(uri, List.of()));
+                }
+            }
+            if (all || !update.isEmpty()) {
+                subscription.initial = false;
+                send(subscription, update);
+            }
+        }
+    }
+
+    /**
+     * URIs changed since the previous tick
+     *
+     * @return URIs or null if changes are not known
+     */
+    private Set<String> findChangedUris() {
+        boolean first = cursor == null;
+        ViewStatsDeltaDto delta;
+        try {
+            delta = statService.getDelta(cursor);
+        } catch (CursorExpiredException e) {
+            cursor = statService.getDelta(null).getCursor();
+            return null;
+        }
+        cursor = delta.getCursor();
+        if (first) {
+            return null;
+        }
+        Set<String> changed = new HashSet<>();
+        delta.getStats().forEach(stat -> changed.add(stat.getUri()));
+        return changed;
+    }
+
+    private Map<String, List<ViewStatsLiveDto>> load(String[] uris) {
+        LocalDateTime now = LocalDateTime.now();
+        // Start is aligned to a day, so it is answered by rollups when raw hits of the day are compacted
+        String start = RollupLevel.DAY.floor(now.minusDays(periodDays)).format(FORMATTER);
+        String end = now.format(FORMATTER);
+
+        Map<List<String>, Long> uniqueHits = new HashMap<>();
+        for (ViewStatsDto stat : statService.getStat(start, end, uris, true, false)) {
+            uniqueHits.put(List.of(stat.getApp(), stat.getUri()), stat.getHits());
+        }
+        Map<String, List<ViewStatsLiveDto>> result = new HashMap<>();
+        for (ViewStatsDto stat : statService.getStat(start, end, uris, false, false)) {
+            result.computeIfAbsent(stat.getUri(), uri -> new ArrayList<>())
+                    .add(new ViewStatsLiveDto(stat.getApp(), stat.getUri(), stat.getHits(),
+                            uniqueHits.getOrDefault(List.of(stat.getApp(), stat.getUri()), 0L)));
+        }
+        return result;
+    }
+
+    private void send(LiveSubscription subscription, List<ViewStatsLiveDto> update) {
+        if (!subscription.updates.offer(update)) {
+            log.debug("Subscriber of live statistics does not read updates and is removed");
+            overflowCounter.increment();
+            subscription.cancel();
+            return;
+        }
+        if (subscription.sending.compareAndSet(false, true)) {
+            sender.execute(subscription::drain);
+        }
+    }
+
+    /**
+     * Class subscription to counts of URIs
+     */
+    public class LiveSubscription {
+        private final Set<String> uris;
+        private final Consumer<List<ViewStatsLiveDto>> listener;
+        private final Runnable onCancel;
+        private final BlockingQueue<List<ViewStatsLiveDto>> updates = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile boolean initial = true;
+
+        private LiveSubscription(Set<String> uris, Consumer<List<ViewStatsLiveDto>> listener, Runnable onCancel) {
+            this.uris = uris;
+            this.listener = listener;
+            this.onCancel = onCancel;
+        }
+
+        /**
+         * Stop sending updates
+         */
+        public void cancel() {
+            if (subscriptions.remove(this)) {
+                updates.clear();
+                onCancel.run();
+            }
+        }
+
+        private void drain() {
+            do {
+                List<ViewStatsLiveDto> update;
+                while ((update = updates.poll()) != null) {
+                    try {
+                        listener.accept(update);
+                    } catch (RuntimeException e) {
+                        log.debug("Subscriber of live statistics is removed: {}", e.getMessage());
+                        cancel();
+                        return;
+                    }
+                }
+                sending.set(false);
+                // Update put after the queue was seen empty is sent by this thread or by the next task
+            } while (!updates.isEmpty() && sending.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.storage.ReplicaRoutingDataSource;
+import ru.practicum.storage.WatermarkRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class monitor of lag of read replicas.
+ * Heartbeat time is written to the primary and read back from every replica,
+ * replicas lagging more than allowed or not reachable are not used for queries until they catch up.
+ * Replica checked with some lag is used only until the lag could reach the allowed one,
+ * so it is not used if the next check is late.
+ * Checks run on their own thread, other scheduled jobs do not delay them.
+ * Recent hits are mostly counted by the in-memory window, so replicas serve older ranges
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stat-server.replicas.urls")
+public class ReplicaLagMonitor {
+    private final ReplicaRoutingDataSource routingDataSource;
+    private final WatermarkRepository watermarkRepository;
+    private final long maxLagMs;
+    private final long checkIntervalMs;
+    private final Map<String, Double> lags = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ReplicaLagMonitor(ReplicaRoutingDataSource routingDataSource, WatermarkRepository watermarkRepository,
+                             @Value("${stat-server.replicas.max-lag-ms:5000}") long maxLagMs,
+                             @Value("${stat-server.replicas.check-interval-ms:1000}") long checkIntervalMs,
+                             MeterRegistry meterRegistry) {
+        this.routingDataSource = routingDataSource;
+        this.watermarkRepository = watermarkRepository;
+        this.maxLagMs = maxLagMs;
+        this.checkIntervalMs = checkIntervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stat-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String name : routingDataSource.getReplicas().keySet()) {
+            lags.put(name, Double.NaN);
+            Gauge.builder("stat.replica.lag", lags, map -> map.get(name))
+                    .tag("replica", name)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Start checks
+     */
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::check, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop checks
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Write heartbeat to the primary and check lag of every replica
+     */
+    void check() {
+        LocalDateTime now = LocalDateTime.now();
+        long checkedAt = System.currentTimeMillis();
+        if (maxLagMs > 0) {
+            try {
+                watermarkRepository.set(WatermarkRepository.HEARTBEAT, now);
+            } catch (RuntimeException e) {
+                log.warn("Failed to write heartbeat to the primary", e);
+                return;
+            }
+        }
+        routingDataSource.getReplicas().forEach((name, replica) -> {
+            try {
+                LocalDateTime heartbeat = watermarkRepository.get(replica, WatermarkRepository.HEARTBEAT);
+                if (maxLagMs > 0) {
+                    long lag = heartbeat == null ? Long.MAX_VALUE
+                            : Math.max(0, Duration.between(heartbeat, now).toMillis());
+                    lags.put(name, heartbeat == null ? Double.NaN : (double) lag);
+                    // Lag grows with time if replica stops applying changes
+                    routingDataSource.setFreshUntil(name, lag <= maxLagMs ? checkedAt + maxLagMs - lag : 0);
+                } else {
+                    routingDataSource.setFreshUntil(name, Long.MAX_VALUE);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Replica {} is not reachable: {}", name, e.getMessage());
+                lags.put(name, Double.NaN);
+                routingDataSource.setFreshUntil(name, 0);
+            }
+        });
+    }
+}
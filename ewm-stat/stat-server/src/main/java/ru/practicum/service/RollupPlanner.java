@@ -0,0 +1,121 @@
+package ru.practicum.service;
+
+import ru.practicum.model.RollupHorizon;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+
+import javax.validation.ValidationException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ru.practicum.util.Util.FORMATTER;
+
+/**
+ * Class planner to split time range
+ * into the coarsest rollup buckets that fit
+ * and raw ragged edges
+ */
+public class RollupPlanner {
+
+    /**
+     * Split time range into segments
+     *
+     * @param from start of range, inclusive
+     * @param to   end of range, exclusive
+     * @return list of segments ordered by time
+     */
+    public static List<RollupSegment> plan(LocalDateTime from, LocalDateTime to) {
+        return plan(from, to, RollupLevel.values());
+    }
+
+    /**
+     * Split time range into segments
+     * using only given rollup levels
+     *
+     * @param from   start of range, inclusive
+     * @param to     end of range, exclusive
+     * @param levels from the coarsest to the finest one
+     * @return list of segments ordered by time
+     */
+    public static List<RollupSegment> plan(LocalDateTime from, LocalDateTime to, RollupLevel[] levels) {
+        List<RollupSegment> segments = new ArrayList<>();
+        plan(from, to, levels, 0, segments);
+        return segments;
+    }
+
+    /**
+     * Split time range into segments
+     * using only given rollup levels kept for every segment.
+     * Range is cut at times since which levels and raw hits are kept,
+     * every part is split with levels kept for the whole part.
+     * Raw hits of parts before the horizon of raw hits are removed,
+     * so edges of such parts should be aligned to buckets of the finest level kept
+     *
+     * @param from    start of range, inclusive
+     * @param to      end of range, exclusive
+     * @param levels  from the coarsest to the finest one
+     * @param horizon times since which raw hits and levels are kept
+     * @return list of segments ordered by time
+     * @throws ValidationException if an edge before the horizon of raw hits is not aligned
+     */
+    public static List<RollupSegment> plan(LocalDateTime from, LocalDateTime to, RollupLevel[] levels,
+                                           RollupHorizon horizon) {
+        List<RollupSegment> result = new ArrayList<>();
+        LocalDateTime partFrom = from;
+        for (LocalDateTime cut : horizon.getCuts().subSet(from, false, to, false)) {
+            planPart(partFrom, cut, levels, horizon, result);
+            partFrom = cut;
+        }
+        planPart(partFrom, to, levels, horizon, result);
+        return result;
+    }
+
+    private static void planPart(LocalDateTime from, LocalDateTime to, RollupLevel[] levels, RollupHorizon horizon,
+                                 List<RollupSegment> result) {
+        RollupLevel[] kept = Arrays.stream(levels)
+                .filter(level -> horizon.isKept(level, from))
+                .toArray(RollupLevel[]::new);
+        List<RollupSegment> segments = plan(from, to, kept);
+        if (horizon.isKept(null, from)) {
+            result.addAll(segments);
+            return;
+        }
+        if (kept.length == 0) {
+            // Nothing is kept for the part
+            return;
+        }
+        RollupLevel finest = kept[kept.length - 1];
+        if (segments.stream().anyMatch(segment -> segment.getLevel() == null)) {
+            // Raw hits of the edge are removed, counting whole buckets would add hits outside of range
+            String unit = finest.name().toLowerCase();
+            throw new ValidationException("Raw hits before " + horizon.getFrom(null).format(FORMATTER)
+                    + " are removed, start before it should be the first second of " + unit
+                    + " and end the last second of " + unit + ".");
+        }
+        result.addAll(segments);
+    }
+
+    private static void plan(LocalDateTime from, LocalDateTime to, RollupLevel[] levels, int levelIndex,
+                             List<RollupSegment> segments) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (levelIndex == levels.length) {
+            segments.add(new RollupSegment(null, from, to));
+            return;
+        }
+
+        RollupLevel level = levels[levelIndex];
+        LocalDateTime bucketsFrom = level.ceil(from);
+        LocalDateTime bucketsTo = level.floor(to);
+        if (bucketsFrom.isBefore(bucketsTo)) {
+            plan(from, bucketsFrom, levels, levelIndex + 1, segments);
+            segments.add(new RollupSegment(level, bucketsFrom, bucketsTo));
+            plan(bucketsTo, to, levels, levelIndex + 1, segments);
+        } else {
+            plan(from, to, levels, levelIndex + 1, segments);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ru.practicum.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.SketchRepository;
+
+/**
+ * Class job merging pending sketches of hours
+ * into sketches of hours, days and months.
+ * Not used in segment storage mode.
+ */
+@Component
+public class SketchMerger {
+    private final SketchRepository sketchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int mergeChunk;
+
+    @Autowired
+    public SketchMerger(SketchRepository sketchRepository, TransactionTemplate transactionTemplate,
+                        SegmentHitStore segmentHitStore,
+                        @Value("${stat-server.sketches.merge-chunk:1000}") int mergeChunk) {
+        this.sketchRepository = sketchRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = !segmentHitStore.isEnabled();
+        this.mergeChunk = mergeChunk;
+    }
+
+    /**
+     * Merge pending sketches in chunks
+     * Every chunk is merged in its own transaction
+     */
+    @Scheduled(fixedDelayString = "${stat-server.sketches.merge-interval-ms:1000}")
+    public void merge() {
+        if (!enabled) {
+            return;
+        }
+        Integer merged;
+        do {
+            merged = transactionTemplate.execute(status -> sketchRepository.mergePending(mergeChunk));
+        } while (merged != null && merged == mergeChunk);
+    }
+}
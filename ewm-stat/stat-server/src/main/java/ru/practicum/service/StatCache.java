@@ -0,0 +1,272 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ViewStatsDto;
+import ru.practicum.model.Statistics;
+import ru.practicum.storage.ReplicaRoutingDataSource;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+
+/**
+ * Class cache of /stats results.
+ * Start of requests is floored to bucket and end is moved to the last second of its bucket,
+ * so requests made within one bucket share the entry
+ * and statistics of the entry are loaded for these bounds.
+ * Entries are evicted by TTL and by size (least recently used first),
+ * entries containing URI of new hit are invalidated after the hit is committed.
+ * Concurrent misses of a key share one load, requests coming while it runs wait for its result.
+ * Loads run on the primary database, a lagging replica could miss hits committed before the load
+ * and the entry would not be invalidated for them
+ */
+@Component
+public class StatCache {
+    private final boolean enabled;
+    private final long bucketSeconds;
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Keys by URI, keys of requests without URIs are stored under null
+    private final Map<String, Set<Key>> keysByUri = new HashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter invalidationCounter;
+
+    @Autowired
+    public StatCache(@Value("${stat-server.cache.enabled:true}")
+                     boolean enabled,
+                     @Value("${stat-server.cache.bucket-seconds:60}")
+                     long bucketSeconds,
+                     @Value("${stat-server.cache.ttl-ms:30000}")
+                     long ttlMillis,
+                     @Value("${stat-server.cache.max-size:10000}")
+                     int maxSize,
+                     MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.bucketSeconds = bucketSeconds;
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        this.hitCounter = meterRegistry.counter("stat.cache.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("stat.cache.requests", "result", "miss");
+        this.invalidationCounter = meterRegistry.counter("stat.cache.invalidations");
+        meterRegistry.gauge("stat.cache.size", this, StatCache::size);
+    }
+
+    /**
+     * Get statistics from cache
+     * or load and put them to cache
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      show stats only with unique IPs
+     * @param approximate count unique IPs with HyperLogLog sketches
+     * @param loader      of statistics by start and end
+     * @return list of statistics
+     */
+    public List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, String[] uris, boolean unique,
+                                  boolean approximate, BiFunction<LocalDateTime, LocalDateTime,
+            List<ViewStatsDto>> loader) {
+        if (!enabled) {
+            return loader.apply(start, end);
+        }
+
+        Key key = new Key(floor(start), floor(end), normalize(uris), unique, approximate);
+        long now = System.currentTimeMillis();
+        // Loading entry does not expire, it is removed if hits of the key are committed while loading,
+        // value may miss these hits and it is not cached then, requests waiting for it still get it
+        Entry entry;
+        Entry loading = null;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null || entry.getExpiresAt() <= now) {
+                loading = new Entry(new CompletableFuture<>(), Long.MAX_VALUE);
+                put(key, loading);
+            }
+        }
+        if (loading == null) {
+            hitCounter.increment();
+            return await(entry.getValue());
+        }
+        missCounter.increment();
+
+        List<ViewStatsDto> value;
+        try {
+            // Every request of the key gets statistics of the same bounds
+            value = List.copyOf(ReplicaRoutingDataSource.onPrimary(() ->
+                    loader.apply(toTime(key.getStart()), toTime(key.getEnd() + bucketSeconds - 1))));
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                if (entries.get(key) == loading) {
+                    remove(key);
+                }
+            }
+            loading.getValue().completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            if (entries.get(key) == loading) {
+                put(key, new Entry(loading.getValue(), now + ttlMillis));
+            }
+        }
+        loading.getValue().complete(value);
+        return value;
+    }
+
+    /**
+     * Invalidate entries containing committed hits
+     *
+     * @param hits committed hits
+     */
+    public void invalidate(List<Statistics> hits) {
+        if (!enabled || hits.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            for (Statistics hit : hits) {
+                long time = floor(hit.getTimeStamp());
+                invalidate(keysByUri.get(hit.getUri()), time);
+                invalidate(keysByUri.get(null), time);
+            }
+        }
+    }
+
+    /**
+     * Get number of entries
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static List<ViewStatsDto> await(CompletableFuture<List<ViewStatsDto>> value) {
+        try {
+            return value.join();
+        } catch (CompletionException e) {
+            // Waiting requests fail with the error of the load they share
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void invalidate(Set<Key> keys, long time) {
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys.toArray(new Key[0])) {
+            // Hit time is floored to bucket, so every entry which may contain the hit is removed
+            if (key.getStart() <= time && time <= key.getEnd()) {
+                remove(key);
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    private void put(Key key, Entry entry) {
+        if (entries.put(key, entry) == null) {
+            if (key.getUris() == null) {
+                keysByUri.computeIfAbsent(null, uri -> new HashSet<>()).add(key);
+            } else {
+                for (String uri : key.getUris()) {
+                    keysByUri.computeIfAbsent(uri, u -> new HashSet<>()).add(key);
+                }
+            }
+        }
+
+        if (entries.size() > maxSize) {
+            removeExpired();
+        }
+        while (entries.size() > maxSize) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        for (Key key : entries.entrySet().stream()
+                .filter(e -> e.getValue().getExpiresAt() <= now)
+                .map(Map.Entry::getKey)
+                .toArray(Key[]::new)) {
+            remove(key);
+        }
+    }
+
+    private void remove(Key key) {
+        entries.remove(key);
+        if (key.getUris() == null) {
+            removeFromIndex(null, key);
+        } else {
+            for (String uri : key.getUris()) {
+                removeFromIndex(uri, key);
+            }
+        }
+    }
+
+    private void removeFromIndex(String uri, Key key) {
+        Set<Key> keys = keysByUri.get(uri);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByUri.remove(uri);
+            }
+        }
+    }
+
+    private long floor(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        return Math.floorDiv(seconds, bucketSeconds) * bucketSeconds;
+    }
+
+    private static LocalDateTime toTime(long seconds) {
+        return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+
+    private static List<String> normalize(String[] uris) {
+        if (uris == null) {
+            return null;
+        }
+        return List.of(Arrays.stream(uris).distinct().sorted().toArray(String[]::new));
+    }
+
+    @Data
+    private static class Key {
+        private final long start;
+        private final long end;
+        private final List<String> uris;
+        private final boolean unique;
+        private final boolean approximate;
+    }
+
+    @Data
+    private static class Entry {
+        private final CompletableFuture<List<ViewStatsDto>> value;
+        private final long expiresAt;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.PartitionRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.WatermarkRepository;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+
+/**
+ * Class compaction job of raw hits.
+ * Rollups, sketches and bitmaps of days are written with raw hits in one transaction,
+ * so raw hits older than the age are already folded into them and are only deleted here.
+ * Watermark is moved by whole days and saved before deletion,
+ * queries stop reading raw hits before the watermark and reject bounds not aligned to buckets there.
+ * Not used in segment storage mode, old segments are removed by retention policy.
+ */
+@Slf4j
+@Component
+public class StatCompactor {
+    private final WatermarkRepository watermarkRepository;
+    private final PartitionRepository partitionRepository;
+    private final BitmapMerger bitmapMerger;
+    private final boolean enabled;
+    private final int ageDays;
+    private final int deleteChunk;
+    private final Counter deletedCounter;
+
+    private volatile LocalDateTime watermark;
+
+    @Autowired
+    public StatCompactor(WatermarkRepository watermarkRepository, PartitionRepository partitionRepository,
+                         SegmentHitStore segmentHitStore, BitmapRepository bitmapRepository,
+                         BitmapMerger bitmapMerger,
+                         @Value("${stat-server.compaction.age-days:0}") int ageDays,
+                         @Value("${stat-server.compaction.delete-chunk:10000}") int deleteChunk,
+                         @Value("${stat-server.window.enabled:true}") boolean windowEnabled,
+                         @Value("${stat-server.window.days:7}") int windowDays,
+                         MeterRegistry meterRegistry) {
+        this.watermarkRepository = watermarkRepository;
+        this.partitionRepository = partitionRepository;
+        this.bitmapMerger = bitmapMerger;
+        this.enabled = ageDays > 0 && !segmentHitStore.isEnabled();
+        this.ageDays = ageDays;
+        this.deleteChunk = deleteChunk;
+        this.deletedCounter = meterRegistry.counter("stat.compaction.deleted");
+        if (enabled && !bitmapRepository.isEnabled()) {
+            throw new IllegalStateException("Compaction of raw hits needs stat-server.bitmaps.enabled=true " +
+                    "to count exact unique IPs of compacted days.");
+        }
+        if (enabled && windowEnabled && ageDays <= windowDays) {
+            throw new IllegalStateException("Compaction age should be more than stat-server.window.days, " +
+                    "in-memory window is loaded from raw hits.");
+        }
+    }
+
+    /**
+     * Load saved watermark
+     */
+    @PostConstruct
+    public void load() {
+        watermark = watermarkRepository.get(WatermarkRepository.COMPACTION);
+    }
+
+    /**
+     * Time of the oldest raw hit
+     *
+     * @return watermark aligned to days or null if nothing was compacted
+     */
+    public LocalDateTime getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Move watermark and delete raw hits before it in chunks
+     * on start and by schedule.
+     * Every chunk is deleted in its own transaction
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stat-server.compaction.cron:0 30 3 * * *}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        // Raw hits of days without built bitmaps are kept to count their exact unique IPs,
+        // these days are older than the oldest built day, so nothing is compacted until all are built
+        LocalDateTime bitmapsFrom = bitmapMerger.getBuiltFrom();
+        if (bitmapsFrom != null) {
+            log.info("Raw hits are not compacted until bitmaps of days before {} are built",
+                    bitmapsFrom.toLocalDate());
+            return;
+        }
+        LocalDateTime next = RollupLevel.DAY.floor(LocalDateTime.now().minusDays(ageDays));
+        if (watermark == null || next.isAfter(watermark)) {
+            watermarkRepository.set(WatermarkRepository.COMPACTION, next);
+            watermark = next;
+            log.info("Moved compaction watermark to {}", next);
+        }
+
+        long total = 0;
+        int deleted;
+        do {
+            deleted = partitionRepository.deleteOlderThan("statistics", watermark, deleteChunk);
+            deletedCounter.increment(deleted);
+            total += deleted;
+        } while (deleted == deleteChunk);
+        if (total > 0) {
+            log.info("Compacted {} raw hits before {}", total, watermark);
+        }
+    }
+}
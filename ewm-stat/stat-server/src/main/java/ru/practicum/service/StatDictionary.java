@@ -0,0 +1,147 @@
+package ru.practicum.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.practicum.storage.DictionaryRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class in-process cache of dictionaries of apps, URIs and IPv6 addresses.
+ * Ids are never changed, so cached entries are never evicted.
+ * New names are committed before they are cached,
+ * so cached ids always exist in the database.
+ */
+@Component
+public class StatDictionary {
+    private final DictionaryRepository dictionaryRepository;
+    private final Map<String, Integer> appIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> appNames = new ConcurrentHashMap<>();
+    private final Map<String, Integer> uriIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> uriNames = new ConcurrentHashMap<>();
+    private final Map<String, Integer> ipv6Ids = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StatDictionary(DictionaryRepository dictionaryRepository) {
+        this.dictionaryRepository = dictionaryRepository;
+    }
+
+    /**
+     * Get id of app, add app if it is absent
+     * Should not be called in transaction
+     *
+     * @param app name
+     * @return id of app
+     */
+    public int getAppId(String app) {
+        return getOrCreate(DictionaryRepository.APPS, app, appIds, appNames);
+    }
+
+    /**
+     * Get id of URI, add URI if it is absent
+     * Should not be called in transaction
+     *
+     * @param uri to find
+     * @return id of URI
+     */
+    public int getUriId(String uri) {
+        return getOrCreate(DictionaryRepository.URIS, uri, uriIds, uriNames);
+    }
+
+    /**
+     * Find id of URI without adding it
+     *
+     * @param uri to find
+     * @return id of URI or null if URI was never hit
+     */
+    public Integer findUriId(String uri) {
+        Integer id = uriIds.get(uri);
+        if (id == null) {
+            id = dictionaryRepository.find(DictionaryRepository.URIS, uri);
+            if (id != null) {
+                put(uri, id, uriIds, uriNames);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Get id of IPv6 address, add address if it is absent
+     * Should not be called in transaction
+     *
+     * @param ip address in canonical form
+     * @return id of address
+     */
+    public int getIpv6Id(String ip) {
+        Integer id = ipv6Ids.get(ip);
+        if (id == null) {
+            id = dictionaryRepository.getOrCreate(DictionaryRepository.IPV6, ip);
+            ipv6Ids.put(ip, id);
+        }
+        return id;
+    }
+
+    /**
+     * Find id of IPv6 address without adding it
+     *
+     * @param ip address in canonical form
+     * @return id of address or null if address was never seen
+     */
+    public Integer findIpv6Id(String ip) {
+        Integer id = ipv6Ids.get(ip);
+        if (id == null) {
+            id = dictionaryRepository.find(DictionaryRepository.IPV6, ip);
+            if (id != null) {
+                ipv6Ids.put(ip, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Get name of app by id
+     *
+     * @param id of app
+     * @return name of app
+     */
+    public String getApp(int id) {
+        return getName(DictionaryRepository.APPS, id, appIds, appNames);
+    }
+
+    /**
+     * Get URI by id
+     *
+     * @param id of URI
+     * @return URI
+     */
+    public String getUri(int id) {
+        return getName(DictionaryRepository.URIS, id, uriIds, uriNames);
+    }
+
+    private int getOrCreate(String table, String name, Map<String, Integer> ids, Map<Integer, String> names) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = dictionaryRepository.getOrCreate(table, name);
+            put(name, id, ids, names);
+        }
+        return id;
+    }
+
+    private String getName(String table, int id, Map<String, Integer> ids, Map<Integer, String> names) {
+        String name = names.get(id);
+        if (name == null) {
+            name = dictionaryRepository.findName(table, id);
+            if (name == null) {
+                throw new IllegalStateException("Id was not found in dictionary " + table + ": " + id);
+            }
+            put(name, id, ids, names);
+        }
+        return name;
+    }
+
+    private static void put(String name, int id, Map<String, Integer> ids, Map<Integer, String> names) {
+        ids.put(name, id);
+        names.put(id, name);
+    }
+}
@@ -0,0 +1,247 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.PartitionRepository;
+import ru.practicum.storage.RollupRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.SketchRepository;
+import ru.practicum.storage.SqlDialect;
+import ru.practicum.storage.WatermarkRepository;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class manager of monthly partitions of statistics table
+ * and retention policy of raw hits.
+ * Partitions are created ahead of time, old ones are dropped or detached.
+ * Without partitioning old hits are deleted in chunks,
+ * in segment storage mode old segments are deleted.
+ * Start of the oldest kept month is saved before raw hits are removed,
+ * queries stop reading raw hits before it, exact unique IPs of older days are counted by bitmaps.
+ * Raw hits are not removed until bitmaps of days written before bitmaps were enabled are built,
+ * unique IPs of these days are counted by raw hits.
+ * Rollups and sketches of days and months are kept, so hit counts of old ranges stay available.
+ * Minute rollups and hour rollups and sketches are removed after their own retention,
+ * queries of older ranges use coarser levels.
+ */
+@Slf4j
+@Component
+public class StatPartitionManager {
+    private final PartitionRepository partitionRepository;
+    private final SegmentHitStore segmentHitStore;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean partitioned;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final boolean detach;
+    private final int deleteChunk;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final WatermarkRepository watermarkRepository;
+    private final BitmapMerger bitmapMerger;
+    private final int minuteRollupDays;
+    private final int hourRollupDays;
+
+    private volatile LocalDateTime retentionFrom;
+    private volatile LocalDateTime minuteRollupFrom;
+    private volatile LocalDateTime hourRollupFrom;
+
+    @Autowired
+    public StatPartitionManager(PartitionRepository partitionRepository, SegmentHitStore segmentHitStore,
+                                TransactionTemplate transactionTemplate, BitmapRepository bitmapRepository,
+                                RollupRepository rollupRepository, SketchRepository sketchRepository,
+                                WatermarkRepository watermarkRepository, BitmapMerger bitmapMerger,
+                                DataSource dataSource,
+                                @Value("${stat-server.partitions.months-ahead:3}") int monthsAhead,
+                                @Value("${stat-server.retention.months:0}") int retentionMonths,
+                                @Value("${stat-server.retention.action:drop}") String retentionAction,
+                                @Value("${stat-server.retention.delete-chunk:10000}") int deleteChunk,
+                                @Value("${stat-server.retention.minute-rollup-days:30}") int minuteRollupDays,
+                                @Value("${stat-server.retention.hour-rollup-days:400}") int hourRollupDays,
+                                @Value("${stat-server.top.hour-retention-days:7}") int topHourDays) {
+        this.partitionRepository = partitionRepository;
+        this.segmentHitStore = segmentHitStore;
+        this.transactionTemplate = transactionTemplate;
+        this.partitioned = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL && partitionRepository.isPartitioned();
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.detach = "detach".equalsIgnoreCase(retentionAction);
+        this.deleteChunk = deleteChunk;
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.watermarkRepository = watermarkRepository;
+        this.bitmapMerger = bitmapMerger;
+        this.minuteRollupDays = minuteRollupDays;
+        this.hourRollupDays = hourRollupDays;
+        if (retentionMonths > 0 && !segmentHitStore.isEnabled() && !bitmapRepository.isEnabled()) {
+            throw new IllegalStateException("Retention of raw hits needs stat-server.bitmaps.enabled=true " +
+                    "to count exact unique IPs of removed days.");
+        }
+        if (hourRollupDays > 0 && hourRollupDays <= topHourDays) {
+            throw new IllegalStateException("Retention of hour rollups should be more than " +
+                    "stat-server.top.hour-retention-days, top hits are loaded from them.");
+        }
+    }
+
+    /**
+     * Load times since which raw hits and rollups are kept
+     */
+    @PostConstruct
+    public void load() {
+        retentionFrom = watermarkRepository.get(WatermarkRepository.RETENTION);
+        minuteRollupFrom = watermarkRepository.get(WatermarkRepository.ROLLUP_MINUTE);
+        hourRollupFrom = watermarkRepository.get(WatermarkRepository.ROLLUP_HOUR);
+    }
+
+    /**
+     * Time of the oldest raw hit kept by retention policy
+     *
+     * @return start of the oldest kept month or null if no hits were removed
+     */
+    public LocalDateTime getRetentionFrom() {
+        return retentionFrom;
+    }
+
+    /**
+     * Times of the oldest kept buckets of rollup levels
+     * with removed buckets
+     *
+     * @return times by level
+     */
+    public Map<RollupLevel, LocalDateTime> getRollupFrom() {
+        Map<RollupLevel, LocalDateTime> rollupFrom = new EnumMap<>(RollupLevel.class);
+        if (minuteRollupFrom != null) {
+            rollupFrom.put(RollupLevel.MINUTE, minuteRollupFrom);
+        }
+        if (hourRollupFrom != null) {
+            rollupFrom.put(RollupLevel.HOUR, hourRollupFrom);
+        }
+        return rollupFrom;
+    }
+
+    /**
+     * Create missing partitions and apply retention policy
+     * on start and by schedule
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stat-server.partitions.cron:0 0 3 * * *}")
+    public void maintain() {
+        YearMonth current = YearMonth.now();
+        YearMonth oldestKept = retentionMonths > 0 ? current.minusMonths(retentionMonths) : null;
+
+        if (partitioned) {
+            createPartitions(current, oldestKept);
+        }
+        if (oldestKept != null) {
+            applyRetention(oldestKept);
+        }
+        pruneRollups();
+    }
+
+    /**
+     * Watermarks are moved before rows are removed,
+     * so queries stop reading removed buckets first
+     */
+    private void pruneRollups() {
+        LocalDateTime now = LocalDateTime.now();
+        if (minuteRollupDays > 0) {
+            LocalDateTime before = RollupLevel.HOUR.floor(now.minusDays(minuteRollupDays));
+            if (minuteRollupFrom == null || before.isAfter(minuteRollupFrom)) {
+                watermarkRepository.set(WatermarkRepository.ROLLUP_MINUTE, before);
+                minuteRollupFrom = before;
+            }
+            int deleted = rollupRepository.prune(RollupLevel.MINUTE, minuteRollupFrom);
+            if (deleted > 0) {
+                log.info("Removed {} minute rollups before {}", deleted, minuteRollupFrom);
+            }
+        }
+        if (hourRollupDays > 0) {
+            LocalDateTime before = RollupLevel.DAY.floor(now.minusDays(hourRollupDays));
+            if (hourRollupFrom == null || before.isAfter(hourRollupFrom)) {
+                watermarkRepository.set(WatermarkRepository.ROLLUP_HOUR, before);
+                hourRollupFrom = before;
+            }
+            int deleted = rollupRepository.prune(RollupLevel.HOUR, hourRollupFrom)
+                    + sketchRepository.prune(RollupLevel.HOUR, hourRollupFrom);
+            if (deleted > 0) {
+                log.info("Removed {} hour rollups and sketches before {}", deleted, hourRollupFrom);
+            }
+        }
+    }
+
+    private void createPartitions(YearMonth current, YearMonth oldestKept) {
+        Set<YearMonth> months = new TreeSet<>(partitionRepository.getDefaultPartitionMonths(
+                oldestKept != null ? oldestKept : YearMonth.of(1970, 1)));
+        for (int i = 0; i <= monthsAhead; i++) {
+            months.add(current.plusMonths(i));
+        }
+        months.removeAll(partitionRepository.getPartitionMonths());
+
+        for (YearMonth month : months) {
+            transactionTemplate.executeWithoutResult(status -> partitionRepository.createPartition(month));
+            log.info("Created partition of statistics for {}", month);
+        }
+    }
+
+    private void applyRetention(YearMonth oldestKept) {
+        if (segmentHitStore.isEnabled()) {
+            int deleted = segmentHitStore.deleteOlderThan(PartitionRepository.toStart(oldestKept));
+            if (deleted > 0) {
+                log.info("Removed {} segments of hits by retention policy", deleted);
+            }
+            return;
+        }
+
+        // Days without built bitmaps are older than the oldest built day, any removed month may contain them
+        LocalDateTime bitmapsFrom = bitmapMerger.getBuiltFrom();
+        if (bitmapsFrom != null) {
+            log.info("Raw hits are kept by retention policy until bitmaps of days before {} are built",
+                    bitmapsFrom.toLocalDate());
+            return;
+        }
+
+        // Watermark is moved before hits are removed, so queries stop reading them first
+        LocalDateTime before = PartitionRepository.toStart(oldestKept);
+        if (retentionFrom == null || before.isAfter(retentionFrom)) {
+            watermarkRepository.set(WatermarkRepository.RETENTION, before);
+            retentionFrom = before;
+        }
+
+        if (partitioned) {
+            List<YearMonth> months = partitionRepository.getPartitionMonths();
+            for (YearMonth month : months) {
+                if (month.isBefore(oldestKept)) {
+                    if (detach) {
+                        partitionRepository.detachPartition(month);
+                    } else {
+                        partitionRepository.dropPartition(month);
+                    }
+                    log.info("Removed partition of statistics for {} by retention policy", month);
+                }
+            }
+        }
+
+        String table = partitioned ? PartitionRepository.DEFAULT_PARTITION : "statistics";
+        int deleted;
+        do {
+            deleted = partitionRepository.deleteOlderThan(table, before, deleteChunk);
+        } while (deleted == deleteChunk);
+    }
+}
@@ -1,9 +1,14 @@
 package ru.practicum.service;
 
+import ru.practicum.EndpointHitBatchResultDto;
 import ru.practicum.EndpointHitDto;
+import ru.practicum.ViewStatsDeltaDto;
 import ru.practicum.ViewStatsDto;
+import ru.practicum.ViewStatsSeriesDto;
+import ru.practicum.ViewStatsSketchDto;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Interface for statistics
@@ -18,16 +23,88 @@ public interface StatService {
      */
     EndpointHitDto saveHit(EndpointHitDto endpointHitDto);
 
+    /**
+     * Save list of hits to statistics
+     * with JDBC batches
+     *
+     * @param endpointHitDtoList to save
+     * @return number of accepted hits per batch
+     */
+    EndpointHitBatchResultDto saveHits(List<EndpointHitDto> endpointHitDtoList);
+
+    /**
+     * Get statistics by parameters
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate true - count unique IPs with HyperLogLog sketches,
+     *                    standard error is about 1.6%
+     * @return list of statistics
+     */
+    List<ViewStatsDto> getStat(String start, String end, String[] uris, boolean unique, boolean approximate);
+
     /**
      * Get statistics by parameters
+     * passing rows to consumer as they are read from database
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate true - count unique IPs with HyperLogLog sketches,
+     *                    standard error is about 1.6%
+     * @param consumer    of statistics
+     */
+    void streamStat(String start, String end, String[] uris, boolean unique, boolean approximate,
+                    Consumer<ViewStatsDto> consumer);
+
+    /**
+     * Get the most hit URIs of period
+     * All hits are counted approximately by sketches of hours,
+     * unique IPs are counted exactly for every URI of period
      *
      * @param start  of statistics
      * @param end    of statistics
-     * @param uris   list of URIs of statistics
-     * @param unique false - no need to show stats with unique IPs,
-     *               true - show stats only with unique IPs
-     * @return list of statistics
+     * @param n      number of URIs
+     * @param unique false - count all hits, true - count only unique IPs
+     * @return list of statistics ordered by hits
+     */
+    List<ViewStatsDto> getTop(String start, String end, int n, boolean unique);
+
+    /**
+     * Get counts of hits and unique IPs of URI
+     * per time bucket of period
+     *
+     * @param uri      of statistics
+     * @param start    of statistics
+     * @param end      of statistics
+     * @param interval length of bucket: minute, hour or day
+     * @return statistics of every bucket ordered by bucket
+     */
+    List<ViewStatsSeriesDto> getSeries(String uri, String start, String end, String interval);
+
+    /**
+     * Get HyperLogLog sketches of unique IPs of statistics groups
+     * to merge them with sketches of other servers
+     *
+     * @param start of statistics
+     * @param end   of statistics
+     * @param uris  list of URIs of statistics
+     * @return list of sketches
+     */
+    List<ViewStatsSketchDto> getSketches(String start, String end, String[] uris);
+
+    /**
+     * Get hits added since cursor per (app, uri)
+     * Without cursor only the current cursor is returned
+     *
+     * @param cursor returned by the previous call, null for the first call
+     * @return added hits and cursor of the next call
      */
-    List<ViewStatsDto> getStat(String start, String end, String[] uris, boolean unique);
+    ViewStatsDeltaDto getDelta(String cursor);
 
 }
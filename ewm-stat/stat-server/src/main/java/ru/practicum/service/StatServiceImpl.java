@@ -1,75 +1,553 @@
 package ru.practicum.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.EndpointHitBatchResultDto;
 import ru.practicum.EndpointHitDto;
+import ru.practicum.ViewStatsDeltaDto;
 import ru.practicum.ViewStatsDto;
+import ru.practicum.ViewStatsSeriesDto;
+import ru.practicum.ViewStatsSketchDto;
+import ru.practicum.model.RollupHorizon;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.SeriesCount;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.StatKey;
 import ru.practicum.model.StatMapper;
+import ru.practicum.model.Statistics;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.ColumnarHitWindow;
+import ru.practicum.storage.DeltaRepository;
+import ru.practicum.storage.RollupRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.SeriesRepository;
+import ru.practicum.storage.SketchRepository;
 import ru.practicum.storage.StatRepository;
+import ru.practicum.util.IpConverter;
+import ru.practicum.util.exception.CursorExpiredException;
 
 import javax.validation.ValidationException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ru.practicum.util.Util.FORMATTER;
 
 /**
- * Class service for operations with statistics
+ * Class service for operations with statistics.
+ * Queries are timed per branch of storage they are read from,
+ * time of consumer of rows (serialization of streamed rows) is not included
  */
 @Service
 public class StatServiceImpl implements StatService {
 
     private final StatRepository statRepository;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final BitmapRepository bitmapRepository;
+    private final SegmentHitStore segmentHitStore;
+    private final SeriesRepository seriesRepository;
+    private final DeltaRepository deltaRepository;
+    private final ColumnarHitWindow hitWindow;
+    private final TopHitsTracker topHitsTracker;
+    private final StatDictionary statDictionary;
+    private final HitWriter hitWriter;
+    private final HitBuffer hitBuffer;
+    private final IngestLimiter ingestLimiter;
+    private final StatCache statCache;
+    private final StatCompactor statCompactor;
+    private final StatPartitionManager statPartitionManager;
+    private final BitmapMerger bitmapMerger;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final int maxSeriesBuckets;
+    private final MeterRegistry meterRegistry;
+    private final Timer hitTimer;
+    private final Timer bufferedHitTimer;
+    private final Timer hitsTimer;
 
     @Autowired
-    public StatServiceImpl(StatRepository statRepository) {
+    public StatServiceImpl(StatRepository statRepository, RollupRepository rollupRepository,
+                           SketchRepository sketchRepository, BitmapRepository bitmapRepository,
+                           SegmentHitStore segmentHitStore, SeriesRepository seriesRepository,
+                           DeltaRepository deltaRepository,
+                           ColumnarHitWindow hitWindow, TopHitsTracker topHitsTracker,
+                           StatDictionary statDictionary,
+                           HitWriter hitWriter, HitBuffer hitBuffer, IngestLimiter ingestLimiter,
+                           StatCache statCache, StatCompactor statCompactor,
+                           StatPartitionManager statPartitionManager, BitmapMerger bitmapMerger,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${stat-server.series.max-buckets:10000}") int maxSeriesBuckets,
+                           MeterRegistry meterRegistry) {
         this.statRepository = statRepository;
+        this.rollupRepository = rollupRepository;
+        this.sketchRepository = sketchRepository;
+        this.bitmapRepository = bitmapRepository;
+        this.segmentHitStore = segmentHitStore;
+        this.seriesRepository = seriesRepository;
+        this.deltaRepository = deltaRepository;
+        this.hitWindow = hitWindow;
+        this.topHitsTracker = topHitsTracker;
+        this.statDictionary = statDictionary;
+        this.hitWriter = hitWriter;
+        this.hitBuffer = hitBuffer;
+        this.ingestLimiter = ingestLimiter;
+        this.statCache = statCache;
+        this.statCompactor = statCompactor;
+        this.statPartitionManager = statPartitionManager;
+        this.bitmapMerger = bitmapMerger;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.maxSeriesBuckets = maxSeriesBuckets;
+        this.meterRegistry = meterRegistry;
+        this.hitTimer = ingestTimer("hit", "sync");
+        this.bufferedHitTimer = ingestTimer("hit", "buffered");
+        this.hitsTimer = ingestTimer("hits", "sync");
     }
 
 
     /**
      * Save new hit to statistics
+     * In buffered mode hit is put to the queue and written later,
+     * if the queue is full hit is written right away.
+     * Synchronous writes are limited by admission control
      *
      * @param endpointHitDto to send
      * @return saved object
      */
     @Override
     public EndpointHitDto saveHit(EndpointHitDto endpointHitDto) {
-        return StatMapper.toEndpointHitDto(statRepository.save(StatMapper.toStatistics(endpointHitDto)));
+        long startNanos = System.nanoTime();
+        Statistics statistics = StatMapper.toStatistics(endpointHitDto);
+        if (hitBuffer.isEnabled() && hitBuffer.offer(statistics)) {
+            bufferedHitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        } else {
+            ingestLimiter.write("hit", 1, () -> hitWriter.write(List.of(statistics)));
+            hitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+        return StatMapper.toEndpointHitDto(statistics);
+    }
+
+    /**
+     * Save list of hits to statistics
+     * with JDBC batches
+     *
+     * @param endpointHitDtoList to save
+     * @return number of accepted hits per batch
+     */
+    @Override
+    public EndpointHitBatchResultDto saveHits(List<EndpointHitDto> endpointHitDtoList) {
+        long startNanos = System.nanoTime();
+        List<Statistics> hits = endpointHitDtoList.stream()
+                .map(StatMapper::toStatistics)
+                .collect(Collectors.toList());
+        List<Integer> batches = ingestLimiter.write("hits", hits.size(), () -> hitWriter.write(hits));
+        hitsTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+        return EndpointHitBatchResultDto.builder()
+                .received(endpointHitDtoList.size())
+                .accepted(batches.stream().mapToInt(Integer::intValue).sum())
+                .batches(batches)
+                .build();
+    }
+
+    /**
+     * Get statistics by parameters
+     * Raw hits before compaction watermark are deleted,
+     * bounds before it should be aligned to buckets of rollups, sketches or bitmaps
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate true - count unique IPs with HyperLogLog sketches,
+     *                    standard error is about 1.6%
+     * @return list of statistics
+     */
+    @Override
+    public List<ViewStatsDto> getStat(String start, String end, String[] uris, boolean unique, boolean approximate) {
+        LocalDateTime startTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startTime, endTime);
+
+        return statCache.get(startTime, endTime, uris, unique, approximate,
+                (from, to) -> readOnlyTransactionTemplate.execute(status -> {
+                    List<ViewStatsDto> result = new ArrayList<>();
+                    timedLoadStat(from, to, uris, unique, approximate, result::add);
+                    return result;
+                }));
     }
 
     /**
      * Get statistics by parameters
+     * passing rows to consumer as they are read from database
+     *
+     * @param start       of statistics
+     * @param end         of statistics
+     * @param uris        list of URIs of statistics
+     * @param unique      false - no need to show stats with unique IPs,
+     *                    true - show stats only with unique IPs
+     * @param approximate true - count unique IPs with HyperLogLog sketches,
+     *                    standard error is about 1.6%
+     * @param consumer    of statistics
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void streamStat(String start, String end, String[] uris, boolean unique, boolean approximate,
+                           Consumer<ViewStatsDto> consumer) {
+        LocalDateTime startTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startTime, endTime);
+        timedLoadStat(startTime, endTime, uris, unique, approximate, consumer);
+    }
+
+    /**
+     * Get the most hit URIs of period.
+     * Hits are counted by Space-Saving sketches of hours and days.
+     * Sketches count hits, not distinct IPs, so unique IPs are counted exactly as usual statistics
+     * of every URI of period (bitmaps of days and raw hits of the rest) and the first n are returned
      *
      * @param start  of statistics
      * @param end    of statistics
-     * @param uris   list of URIs of statistics
-     * @param unique false - no need to show stats with unique IPs,
-     *               true - show stats only with unique IPs
-     * @return list of statistics
+     * @param n      number of URIs
+     * @param unique false - count all hits, true - count only unique IPs
+     * @return list of statistics ordered by hits
      */
     @Override
-    public List<ViewStatsDto> getStat(String start, String end, String[] uris, boolean unique) {
-        if (LocalDateTime.parse(start, FORMATTER).isAfter(LocalDateTime.parse(end, FORMATTER))) {
-            throw new ValidationException("Start time should be before end time.");
+    public List<ViewStatsDto> getTop(String start, String end, int n, boolean unique) {
+        if (n <= 0) {
+            throw new ValidationException("Number of URIs should be positive.");
         }
-
         if (unique) {
-            if (uris != null) {
-                return statRepository.getAllWithUniqueIp(LocalDateTime.parse(start, FORMATTER),
-                        LocalDateTime.parse(end, FORMATTER), List.of(uris));
+            return getStat(start, end, null, true, false).stream()
+                    .limit(n)
+                    .collect(Collectors.toList());
+        }
+
+        LocalDateTime startTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startTime, endTime);
+        return topHitsTracker.getTop(startTime, endTime, n).stream()
+                .map(this::toViewStatsDto)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get counts of hits and unique IPs of URI
+     * per time bucket of period.
+     * Period is widened to whole buckets, empty buckets have zero counts.
+     * Buckets are read from rollups, minute buckets and segments are counted from raw hits
+     *
+     * @param uri      of statistics
+     * @param start    of statistics
+     * @param end      of statistics
+     * @param interval length of bucket: minute, hour or day
+     * @return statistics of every bucket ordered by bucket
+     */
+    @Override
+    public List<ViewStatsSeriesDto> getSeries(String uri, String start, String end, String interval) {
+        LocalDateTime startTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startTime, endTime);
+        RollupLevel level = toSeriesLevel(interval);
+        LocalDateTime from = level.floor(startTime);
+        LocalDateTime to = level.ceil(endTime.plusSeconds(1));
+        long buckets = level.getUnit().between(from, to);
+        if (buckets > maxSeriesBuckets) {
+            throw new ValidationException("Number of buckets should not be more than " + maxSeriesBuckets + ".");
+        }
+
+        // Minute buckets are counted from raw hits, other buckets are read from rollups of their level
+        RollupLevel source = level == RollupLevel.MINUTE ? null : level;
+        RollupHorizon horizon = horizon();
+        if (!segmentHitStore.isEnabled() && !horizon.isKept(source, from)) {
+            throw new ValidationException(level.name().charAt(0) + level.name().substring(1).toLowerCase()
+                    + " series are available only since " + horizon.getFrom(source).format(FORMATTER) + ".");
+        }
+
+        Integer uriId = statDictionary.findUriId(uri);
+        List<SeriesCount> counts = List.of();
+        if (uriId != null) {
+            counts = segmentHitStore.isEnabled()
+                    ? segmentHitStore.getSeries(level, uriId, from, to)
+                    : readOnlyTransactionTemplate.execute(status ->
+                    seriesRepository.getSeries(level, uriId, from, to, bitmapMerger.getBuiltFrom()));
+        }
+
+        List<ViewStatsSeriesDto> result = new ArrayList<>((int) buckets);
+        int next = 0;
+        for (LocalDateTime bucket = from; bucket.isBefore(to); bucket = bucket.plus(1, level.getUnit())) {
+            if (next < counts.size() && counts.get(next).getBucket().equals(bucket)) {
+                SeriesCount count = counts.get(next++);
+                result.add(new ViewStatsSeriesDto(bucket.format(FORMATTER), count.getHits(), count.getUniqueHits()));
             } else {
-                return statRepository.getAllWithUniqueIpAndWithoutUris(LocalDateTime.parse(start, FORMATTER),
-                        LocalDateTime.parse(end, FORMATTER));
+                result.add(new ViewStatsSeriesDto(bucket.format(FORMATTER), 0, 0));
             }
-        } else {
-            if (uris != null) {
-                return statRepository.getAllWithAllIp(LocalDateTime.parse(start, FORMATTER),
-                        LocalDateTime.parse(end, FORMATTER), List.of(uris));
-            } else {
-                return statRepository.getAllWithAllIpAndWithoutUris(LocalDateTime.parse(start, FORMATTER),
-                        LocalDateTime.parse(end, FORMATTER));
+        }
+        return result;
+    }
+
+    /**
+     * Get HyperLogLog sketches of unique IPs of statistics groups
+     * Sketches are read from storage, in-memory window has no sketches
+     *
+     * @param start of statistics
+     * @param end   of statistics
+     * @param uris  list of URIs of statistics
+     * @return list of sketches
+     */
+    @Override
+    public List<ViewStatsSketchDto> getSketches(String start, String end, String[] uris) {
+        LocalDateTime startTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startTime, endTime);
+        List<Integer> uriIds = findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+
+        Map<StatKey, HyperLogLog> sketches = segmentHitStore.isEnabled()
+                ? segmentHitStore.getSketches(startTime, endTime, uriIds)
+                : readOnlyTransactionTemplate.execute(status ->
+                sketchRepository.getSketches(RollupPlanner.plan(startTime, endTime.plusSeconds(1),
+                        SketchRepository.LEVELS, horizon()), uriIds));
+        return sketches.entrySet().stream()
+                .map(entry -> new ViewStatsSketchDto(statDictionary.getApp(entry.getKey().getAppId()),
+                        statDictionary.getUri(entry.getKey().getUriId()), entry.getValue().toBytes()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get hits added since cursor per (app, uri)
+     * Cursor is the sequence number of the last write of hits,
+     * so work of a call follows the number of writes since the previous one.
+     * Cursor does not go back, even if a lagging replica is read
+     *
+     * @param cursor returned by the previous call, null for the first call
+     * @return added hits ordered by hits and cursor of the next call
+     */
+    @Override
+    public ViewStatsDeltaDto getDelta(String cursor) {
+        long after = -1;
+        if (cursor != null) {
+            try {
+                after = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Cursor is not valid.");
+            }
+            if (after < 0) {
+                throw new ValidationException("Cursor is not valid.");
+            }
+        }
+        long from = after;
+        return readOnlyTransactionTemplate.execute(status -> {
+            long current = deltaRepository.getCurrent();
+            if (from < 0 || from >= current) {
+                return new ViewStatsDeltaDto(String.valueOf(Math.max(from, current)), List.of());
+            }
+            List<ViewStatsDto> stats = new ArrayList<>();
+            deltaRepository.getHits(from, current, count -> stats.add(new ViewStatsDto(
+                    statDictionary.getApp(count.getAppId()), statDictionary.getUri(count.getUriId()),
+                    count.getHits())));
+            // Checked after changes are read, changes pruned while reading are detected too
+            if (from < deltaRepository.getPruned()) {
+                throw new CursorExpiredException("Changes since cursor are not kept, " +
+                        "statistics should be loaded again.");
+            }
+            return new ViewStatsDeltaDto(String.valueOf(current), stats);
+        });
+    }
+
+    private static RollupLevel toSeriesLevel(String interval) {
+        for (RollupLevel level : List.of(RollupLevel.MINUTE, RollupLevel.HOUR, RollupLevel.DAY)) {
+            if (level.name().equalsIgnoreCase(interval)) {
+                return level;
+            }
+        }
+        throw new ValidationException("Interval should be minute, hour or day.");
+    }
+
+    private void validate(LocalDateTime startTime, LocalDateTime endTime) {
+        if (startTime.isAfter(endTime)) {
+            throw new ValidationException("Start time should be before end time.");
+        }
+    }
+
+    private void timedLoadStat(LocalDateTime startTime, LocalDateTime endTime, String[] uris, boolean unique,
+                               boolean approximate, Consumer<ViewStatsDto> consumer) {
+        long[] rows = new long[1];
+        long[] consumerNanos = new long[1];
+        long startNanos = System.nanoTime();
+        String branch = loadStat(startTime, endTime, uris, unique, approximate, viewStatsDto -> {
+            rows[0]++;
+            long consumerStart = System.nanoTime();
+            consumer.accept(viewStatsDto);
+            consumerNanos[0] += System.nanoTime() - consumerStart;
+        });
+
+        String[] tags = {"branch", branch, "unique", String.valueOf(unique), "uris", String.valueOf(uris != null)};
+        Timer.builder("stat.query")
+                .description("Time of reading statistics without consumer of rows")
+                .tags(tags)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos - consumerNanos[0], TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("stat.query.rows")
+                .description("Number of rows of statistics")
+                .tags(tags)
+                .register(meterRegistry)
+                .record(rows[0]);
+    }
+
+    private String loadStat(LocalDateTime startTime, LocalDateTime endTime, String[] uris, boolean unique,
+                            boolean approximate, Consumer<ViewStatsDto> consumer) {
+        List<Integer> uriIds = findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return "none";
+        }
+
+        Consumer<StatCount> countConsumer = count -> consumer.accept(toViewStatsDto(count));
+        ColumnarHitWindow.Snapshot window = hitWindow.snapshot();
+        if (window.covers(startTime)) {
+            // Unique IPs are counted exactly in memory
+            window.getHits(startTime, endTime, uriIds, unique, countConsumer);
+            return "window";
+        }
+        LocalDateTime coveredFrom = window.getCoveredFrom();
+        if (!unique && coveredFrom != null && !endTime.isBefore(coveredFrom)) {
+            // Hits of older part are read from storage and added to hits of the window,
+            // unique IPs of two parts can not be added, so such requests are read from storage only
+            Map<StatKey, Long> hits = new HashMap<>();
+            Consumer<StatCount> merger = count -> hits.merge(new StatKey(count.getAppId(), count.getUriId()),
+                    count.getHits(), Long::sum);
+            loadCounts(startTime, coveredFrom.minusSeconds(1), uriIds, false, false, merger);
+            window.getHits(coveredFrom, endTime, uriIds, false, merger);
+            hits.entrySet().stream()
+                    .map(entry -> new StatCount(entry.getKey().getAppId(), entry.getKey().getUriId(),
+                            entry.getValue()))
+                    .sorted(Comparator.comparingLong(StatCount::getHits).reversed())
+                    .forEach(countConsumer);
+            return "window-storage";
+        }
+        return loadCounts(startTime, endTime, uriIds, unique, approximate, countConsumer);
+    }
+
+    private String loadCounts(LocalDateTime startTime, LocalDateTime endTime, List<Integer> uriIds, boolean unique,
+                              boolean approximate, Consumer<StatCount> countConsumer) {
+        if (segmentHitStore.isEnabled()) {
+            segmentHitStore.getHits(startTime, endTime, uriIds, unique, approximate, countConsumer);
+            return "segment";
+        }
+        RollupHorizon horizon = horizon();
+        if (unique && approximate) {
+            // Sketches are merged in memory, their number is bounded by number of (app, uri) groups
+            sketchRepository.getSketches(RollupPlanner.plan(startTime, endTime.plusSeconds(1),
+                            SketchRepository.LEVELS, horizon), uriIds)
+                    .entrySet().stream()
+                    .map(entry -> new StatCount(entry.getKey().getAppId(), entry.getKey().getUriId(),
+                            entry.getValue().cardinality()))
+                    .sorted(Comparator.comparingLong(StatCount::getHits).reversed())
+                    .forEach(countConsumer);
+            return "sketch";
+        } else if (unique && bitmapRepository.isEnabled()) {
+            // Day bitmaps are merged by OR, raw hits are read only for partial days at the edges
+            // and for days written before bitmaps were enabled until their bitmaps are built
+            bitmapRepository.getBitmaps(RollupPlanner.plan(startTime, endTime.plusSeconds(1),
+                            BitmapRepository.LEVELS,
+                            horizon.withLevelFrom(RollupLevel.DAY, bitmapMerger.getBuiltFrom())),
+                            uriIds, ipv6Ids())
+                    .entrySet().stream()
+                    .map(entry -> new StatCount(entry.getKey().getAppId(), entry.getKey().getUriId(),
+                            entry.getValue().cardinality()))
+                    .sorted(Comparator.comparingLong(StatCount::getHits).reversed())
+                    .forEach(countConsumer);
+            return "bitmap";
+        } else if (unique) {
+            try (Stream<StatCount> counts = uriIds != null
+                    ? statRepository.getAllWithUniqueIp(startTime, endTime, uriIds)
+                    : statRepository.getAllWithUniqueIpAndWithoutUris(startTime, endTime)) {
+                counts.forEach(countConsumer);
             }
+            return "distinct";
+        } else {
+            // Hits are stored with seconds precision, so the end second is included as [start, end + 1s)
+            rollupRepository.getHits(RollupPlanner.plan(startTime, endTime.plusSeconds(1),
+                    RollupLevel.values(), horizon), uriIds, countConsumer);
+            return "rollup";
         }
     }
+
+    /**
+     * Times since which raw hits and rollup levels are kept,
+     * raw hits are removed by compaction and by retention policy
+     */
+    private RollupHorizon horizon() {
+        LocalDateTime compactedTo = statCompactor.getWatermark();
+        LocalDateTime retentionFrom = statPartitionManager.getRetentionFrom();
+        LocalDateTime rawFrom = compactedTo == null || retentionFrom != null && retentionFrom.isAfter(compactedTo)
+                ? retentionFrom : compactedTo;
+        return new RollupHorizon(rawFrom, statPartitionManager.getRollupFrom());
+    }
+
+    private Timer ingestTimer(String endpoint, String mode) {
+        return Timer.builder("stat.ingest")
+                .description("Time of accepting hits")
+                .tags("endpoint", endpoint, "mode", mode)
+                .register(meterRegistry);
+    }
+
+    private List<Integer> findUriIds(String[] uris) {
+        if (uris == null) {
+            return null;
+        }
+        // URIs are filtered by ids, URIs which were never hit have no statistics
+        return Arrays.stream(uris)
+                .map(statDictionary::findUriId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Ids of IPv6 addresses of raw hits for one query.
+     * Addresses written while bitmaps were disabled have no ids,
+     * they get negative ids of the query which never match ids of dictionary
+     */
+    private ToIntFunction<byte[]> ipv6Ids() {
+        Map<String, Integer> temporaryIds = new HashMap<>();
+        return ip -> {
+            String address = IpConverter.toString(ip);
+            Integer id = temporaryIds.get(address);
+            if (id == null) {
+                id = statDictionary.findIpv6Id(address);
+            }
+            if (id == null) {
+                id = -1 - temporaryIds.size();
+                temporaryIds.put(address, id);
+            }
+            return id;
+        };
+    }
+
+    private ViewStatsDto toViewStatsDto(StatCount count) {
+        return new ViewStatsDto(statDictionary.getApp(count.getAppId()), statDictionary.getUri(count.getUriId()),
+                count.getHits());
+    }
 }
@@ -0,0 +1,167 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.Statistics;
+import ru.practicum.sketch.SpaceSaving;
+import ru.practicum.storage.RollupRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.util.LongLongHashMap;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Class tracker of the most hit (app, uri) pairs
+ * with Space-Saving sketches per hour and per day.
+ * Range is widened to whole hours, hours older than hour retention are answered by their days.
+ * Counts may be overestimated by at most hits of range / capacity
+ */
+@Slf4j
+@Component
+public class TopHitsTracker {
+    private static final RollupLevel[] LEVELS = {RollupLevel.DAY, RollupLevel.HOUR};
+
+    private final RollupRepository rollupRepository;
+    private final SegmentHitStore segmentHitStore;
+    private final int capacity;
+    private final int hourDays;
+    private final int dayDays;
+
+    private final ConcurrentNavigableMap<LocalDateTime, SpaceSaving> hours = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<LocalDateTime, SpaceSaving> days = new ConcurrentSkipListMap<>();
+
+    @Autowired
+    public TopHitsTracker(RollupRepository rollupRepository, SegmentHitStore segmentHitStore,
+                          @Value("${stat-server.top.capacity:1000}") int capacity,
+                          @Value("${stat-server.top.hour-retention-days:7}") int hourDays,
+                          @Value("${stat-server.top.day-retention-days:400}") int dayDays) {
+        this.rollupRepository = rollupRepository;
+        this.segmentHitStore = segmentHitStore;
+        this.capacity = capacity;
+        this.hourDays = hourDays;
+        this.dayDays = dayDays;
+    }
+
+    /**
+     * Load sketches from rollups,
+     * in segment storage mode from segments
+     */
+    @PostConstruct
+    public void load() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime hourFrom = RollupLevel.DAY.floor(now.minusDays(hourDays));
+        LocalDateTime dayFrom = RollupLevel.DAY.floor(now.minusDays(dayDays));
+        if (segmentHitStore.isEnabled()) {
+            segmentHitStore.forEachSince(dayFrom, hit -> add(hit, hourFrom));
+        } else {
+            rollupRepository.forEachBucket(RollupLevel.HOUR, hourFrom, (bucket, count) ->
+                    sketch(hours, bucket).add(key(count.getAppId(), count.getUriId()), count.getHits()));
+            rollupRepository.forEachBucket(RollupLevel.DAY, dayFrom, (bucket, count) ->
+                    sketch(days, bucket).add(key(count.getAppId(), count.getUriId()), count.getHits()));
+        }
+        log.info("Loaded top hits of {} hours and {} days", hours.size(), days.size());
+    }
+
+    /**
+     * Add committed hits to sketches
+     *
+     * @param hits to add
+     */
+    public void add(List<Statistics> hits) {
+        LocalDateTime hourFrom = evict();
+        for (Statistics hit : hits) {
+            add(hit, hourFrom);
+        }
+    }
+
+    /**
+     * Get the most hit (app, uri) pairs of period
+     *
+     * @param start of period
+     * @param end   of period, inclusive
+     * @param n     number of pairs
+     * @return pairs ordered by hits
+     */
+    public List<StatCount> getTop(LocalDateTime start, LocalDateTime end, int n) {
+        LocalDateTime hourFrom = RollupLevel.DAY.floor(LocalDateTime.now().minusDays(hourDays));
+        Set<SpaceSaving> sketches = new LinkedHashSet<>();
+        for (RollupSegment segment : RollupPlanner.plan(RollupLevel.HOUR.floor(start),
+                RollupLevel.HOUR.ceil(end.plusSeconds(1)), LEVELS)) {
+            if (segment.getLevel() == RollupLevel.DAY) {
+                sketches.addAll(days.subMap(segment.getFrom(), segment.getTo()).values());
+            } else if (!segment.getTo().isAfter(hourFrom)) {
+                // Hours are dropped, the whole day is taken
+                addIfPresent(sketches, days.get(RollupLevel.DAY.floor(segment.getFrom())));
+            } else {
+                sketches.addAll(hours.subMap(segment.getFrom(), segment.getTo()).values());
+            }
+        }
+
+        // Every key gets minimal counts of all sketches and its counts over them
+        LongLongHashMap counts = new LongLongHashMap();
+        long minSum = 0;
+        for (SpaceSaving sketch : sketches) {
+            minSum += sketch.forEachOverMin(counts::addTo);
+        }
+        long min = minSum;
+
+        PriorityQueue<StatCount> top = new PriorityQueue<>(Comparator.comparingLong(StatCount::getHits));
+        counts.forEach((key, overMin) -> {
+            long hits = overMin + min;
+            if (top.size() < n) {
+                top.add(new StatCount((int) (key >>> 32), (int) key, hits));
+            } else if (n > 0 && top.peek().getHits() < hits) {
+                top.poll();
+                top.add(new StatCount((int) (key >>> 32), (int) key, hits));
+            }
+        });
+        List<StatCount> result = new ArrayList<>(top);
+        result.sort(Comparator.comparingLong(StatCount::getHits).reversed());
+        return result;
+    }
+
+    private void add(Statistics hit, LocalDateTime hourFrom) {
+        long key = key(hit.getAppId(), hit.getUriId());
+        LocalDateTime hour = RollupLevel.HOUR.floor(hit.getTimeStamp());
+        if (!hour.isBefore(hourFrom)) {
+            sketch(hours, hour).add(key, 1);
+        }
+        sketch(days, RollupLevel.DAY.floor(hit.getTimeStamp())).add(key, 1);
+    }
+
+    private LocalDateTime evict() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime hourFrom = RollupLevel.DAY.floor(now.minusDays(hourDays));
+        hours.headMap(hourFrom).clear();
+        days.headMap(RollupLevel.DAY.floor(now.minusDays(dayDays))).clear();
+        return hourFrom;
+    }
+
+    private SpaceSaving sketch(ConcurrentNavigableMap<LocalDateTime, SpaceSaving> sketches, LocalDateTime bucket) {
+        return sketches.computeIfAbsent(bucket, b -> new SpaceSaving(capacity));
+    }
+
+    private static void addIfPresent(Set<SpaceSaving> sketches, SpaceSaving sketch) {
+        if (sketch != null) {
+            sketches.add(sketch);
+        }
+    }
+
+    private static long key(int appId, int uriId) {
+        return ((long) appId << 32) | (uriId & 0xFFFFFFFFL);
+    }
+}
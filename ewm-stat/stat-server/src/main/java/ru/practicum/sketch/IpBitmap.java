@@ -0,0 +1,111 @@
+package ru.practicum.sketch;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class exact set of IPs as compressed bitmaps.
+ * IPv4 addresses are stored as 32-bit numbers,
+ * IPv6 addresses are stored as ids of IPv6 dictionary in a separate bitmap.
+ * Sets are merged by bitmap OR, size is the sum of cardinalities of two bitmaps.
+ */
+public class IpBitmap {
+    private final RoaringBitmap ipv4;
+    private final RoaringBitmap ipv6;
+
+    public IpBitmap() {
+        this(new RoaringBitmap(), new RoaringBitmap());
+    }
+
+    private IpBitmap(RoaringBitmap ipv4, RoaringBitmap ipv6) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    /**
+     * Add IPv4 address
+     *
+     * @param ip 4 bytes of address
+     */
+    public void addIpv4(byte[] ip) {
+        ipv4.add(ByteBuffer.wrap(ip).getInt());
+    }
+
+    /**
+     * Add IPv6 address by its id
+     *
+     * @param id of address in IPv6 dictionary
+     */
+    public void addIpv6(int id) {
+        ipv6.add(id);
+    }
+
+    /**
+     * Merge other set into this one
+     *
+     * @param other set to merge
+     * @return true if set was changed
+     */
+    public boolean merge(IpBitmap other) {
+        long before = cardinality();
+        ipv4.or(other.ipv4);
+        ipv6.or(other.ipv6);
+        return cardinality() != before;
+    }
+
+    /**
+     * Number of IPs in the set
+     *
+     * @return exact number of IPs
+     */
+    public long cardinality() {
+        return ipv4.getLongCardinality() + ipv6.getLongCardinality();
+    }
+
+    /**
+     * Serialize set,
+     * bitmaps are run-length encoded where it is smaller
+     *
+     * @return bytes of set
+     */
+    public byte[] toBytes() {
+        ipv4.runOptimize();
+        ipv6.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                8 + ipv4.serializedSizeInBytes() + ipv6.serializedSizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ipv4.serializedSizeInBytes());
+            ipv4.serialize(out);
+            ipv6.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize set
+     *
+     * @param bytes of set
+     * @return set of IPs
+     */
+    public static IpBitmap fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int ipv4Size = buffer.getInt();
+        RoaringBitmap ipv4 = new RoaringBitmap();
+        RoaringBitmap ipv6 = new RoaringBitmap();
+        try {
+            ipv4.deserialize(buffer.slice().limit(ipv4Size));
+            buffer.position(4 + ipv4Size);
+            ipv6.deserialize(buffer.slice());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new IpBitmap(ipv4, ipv6);
+    }
+}
@@ -0,0 +1,96 @@
+package ru.practicum.sketch;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Class Space-Saving sketch of the most frequent keys.
+ * At most capacity keys are counted, a new key replaces the key with the minimal count
+ * and inherits its count as error, so counts are never underestimated.
+ * Every key with frequency above total / capacity is kept,
+ * count of a key is overestimated by at most total / capacity.
+ * Merged sketches keep the bound for total of all sketches.
+ */
+public class SpaceSaving {
+    private static final Comparator<Counter> ORDER = Comparator.comparingLong((Counter counter) -> counter.count)
+            .thenComparingLong(counter -> counter.key);
+
+    private final int capacity;
+    private final Map<Long, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> ordered = new TreeSet<>(ORDER);
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add occurrences of key
+     *
+     * @param key   to add
+     * @param count number of occurrences
+     */
+    public synchronized void add(long key, long count) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(key, 0);
+            } else {
+                Counter min = ordered.pollFirst();
+                counters.remove(min.key);
+                counter = new Counter(key, min.count);
+            }
+            counters.put(key, counter);
+        } else {
+            ordered.remove(counter);
+        }
+        counter.count += count;
+        ordered.add(counter);
+    }
+
+    /**
+     * Pass every counted key to consumer
+     *
+     * @param consumer of keys and counts
+     */
+    public synchronized void forEach(CounterConsumer consumer) {
+        for (Counter counter : ordered) {
+            consumer.accept(counter.key, counter.count);
+        }
+    }
+
+    /**
+     * Pass every counted key to consumer with its count over the minimal count.
+     * Key which is not counted may have occurred up to the minimal count times,
+     * so sketches are merged by adding minimal counts of sketches without the key
+     *
+     * @param consumer of keys and counts over the minimal count
+     * @return minimal count, 0 if sketch is not full
+     */
+    public synchronized long forEachOverMin(CounterConsumer consumer) {
+        long min = counters.size() < capacity ? 0 : ordered.first().count;
+        for (Counter counter : ordered) {
+            consumer.accept(counter.key, counter.count - min);
+        }
+        return min;
+    }
+
+    private static class Counter {
+        private final long key;
+        private long count;
+
+        private Counter(long key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Consumer of counted keys
+     */
+    @FunctionalInterface
+    public interface CounterConsumer {
+        void accept(long key, long count);
+    }
+}
@@ -0,0 +1,261 @@
+package ru.practicum.storage;
+
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+import ru.practicum.model.StatKey;
+import ru.practicum.model.Statistics;
+import ru.practicum.sketch.IpBitmap;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Class repository for exact sets of unique IPs
+ * as compressed bitmaps per (app, uri, day).
+ * Writes only insert bitmaps of their hits to pending table,
+ * pending bitmaps are merged into bitmaps of days in chunks by a background job.
+ * Queries read pending bitmaps before bitmaps of days,
+ * so bitmaps merged in between are counted twice, which does not change sets
+ */
+@Repository
+public class BitmapRepository {
+    public static final RollupLevel[] LEVELS = {RollupLevel.DAY};
+
+    static final String TABLE = "stat_ip_day";
+    static final String PENDING_TABLE = "stat_ip_day_pending";
+    private static final String PENDING_INSERT = "insert into " + PENDING_TABLE +
+            " (uri_id, bucket, app_id, bitmap) values (:uriId, :bucket, :appId, :bitmap)";
+    private static final String POSTGRESQL_INSERT = "insert into " + TABLE + " (uri_id, bucket, app_id, bitmap) " +
+            "values (:uriId, :bucket, :appId, :bitmap) on conflict (uri_id, bucket, app_id) do nothing";
+    private static final String H2_INSERT = "merge into " + TABLE + " as r " +
+            "using (values (cast(:uriId as integer), cast(:bucket as timestamp), " +
+            "cast(:appId as integer), cast(:bitmap as bytea))) as s(uri_id, bucket, app_id, bitmap) " +
+            "on r.uri_id = s.uri_id and r.bucket = s.bucket and r.app_id = s.app_id " +
+            "when not matched then insert (uri_id, bucket, app_id, bitmap) " +
+            "values (s.uri_id, s.bucket, s.app_id, s.bitmap)";
+    private static final String SELECT_FOR_UPDATE = "select bitmap from " + TABLE +
+            " where uri_id = :uriId and bucket = :bucket and app_id = :appId for update";
+    private static final String UPDATE = "update " + TABLE + " set bitmap = :bitmap " +
+            "where uri_id = :uriId and bucket = :bucket and app_id = :appId";
+    private static final Comparator<BitmapKey> KEY_ORDER = Comparator.comparingInt(BitmapKey::getUriId)
+            .thenComparing(BitmapKey::getBucket)
+            .thenComparingInt(BitmapKey::getAppId);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String insert;
+    private final boolean enabled;
+
+    @Autowired
+    public BitmapRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource,
+                            @Value("${stat-server.bitmaps.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.insert = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL ? POSTGRESQL_INSERT : H2_INSERT;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add IPs of hits to pending bitmaps of days
+     * in one batch without locking bitmaps of days
+     *
+     * @param hits to add, IPv6 hits should have id of IPv6 dictionary
+     */
+    public void add(List<Statistics> hits) {
+        Map<BitmapKey, IpBitmap> bitmaps = new TreeMap<>(KEY_ORDER);
+        for (Statistics hit : hits) {
+            IpBitmap bitmap = bitmaps.computeIfAbsent(new BitmapKey(hit.getAppId(), hit.getUriId(),
+                    RollupLevel.DAY.floor(hit.getTimeStamp())), key -> new IpBitmap());
+            if (hit.getIp().length == 4) {
+                bitmap.addIpv4(hit.getIp());
+            } else {
+                bitmap.addIpv6(hit.getIpv6Id());
+            }
+        }
+        addPending(bitmaps);
+    }
+
+    /**
+     * Add IPs of raw hits of period to pending bitmaps of days
+     * for days written before bitmaps were enabled
+     *
+     * @param from    start of period, inclusive
+     * @param to      end of period, exclusive
+     * @param ipv6Ids ids of IPv6 addresses, added to dictionary if absent
+     * @return number of added bitmaps
+     */
+    public int backfill(LocalDateTime from, LocalDateTime to, ToIntFunction<byte[]> ipv6Ids) {
+        Map<BitmapKey, IpBitmap> bitmaps = new TreeMap<>(KEY_ORDER);
+        jdbcTemplate.query("select distinct app_id, uri_id, time_stamp, ip from statistics " +
+                        "where time_stamp >= :from and time_stamp < :to",
+                new MapSqlParameterSource()
+                        .addValue("from", Timestamp.valueOf(from))
+                        .addValue("to", Timestamp.valueOf(to)),
+                rs -> {
+                    IpBitmap bitmap = bitmaps.computeIfAbsent(new BitmapKey(rs.getInt("app_id"),
+                            rs.getInt("uri_id"), RollupLevel.DAY.floor(rs.getTimestamp("time_stamp")
+                            .toLocalDateTime())), key -> new IpBitmap());
+                    byte[] ip = rs.getBytes("ip");
+                    if (ip.length == 4) {
+                        bitmap.addIpv4(ip);
+                    } else {
+                        bitmap.addIpv6(ipv6Ids.applyAsInt(ip));
+                    }
+                });
+        addPending(bitmaps);
+        return bitmaps.size();
+    }
+
+    /**
+     * Time of the newest raw hit before time
+     *
+     * @param before end of period, exclusive, null for all hits
+     * @return time of hit or null if there are no hits
+     */
+    public LocalDateTime findNewestHit(LocalDateTime before) {
+        Timestamp time = before == null
+                ? jdbcTemplate.getJdbcTemplate().queryForObject("select max(time_stamp) from statistics",
+                Timestamp.class)
+                : jdbcTemplate.queryForObject("select max(time_stamp) from statistics where time_stamp < :before",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)), Timestamp.class);
+        return time != null ? time.toLocalDateTime() : null;
+    }
+
+    /**
+     * Merge the oldest pending bitmaps into bitmaps of days
+     * New buckets are inserted in one batch,
+     * existing ones are locked, merged and updated only if set changed.
+     * Should be called in write transaction
+     *
+     * @param limit of pending bitmaps
+     * @return number of merged pending bitmaps
+     */
+    public int mergePending(int limit) {
+        Map<BitmapKey, IpBitmap> bitmaps = new TreeMap<>(KEY_ORDER);
+        List<Long> ids = new ArrayList<>();
+        jdbcTemplate.query("select id, uri_id, bucket, app_id, bitmap from " + PENDING_TABLE +
+                        " order by id limit :limit", new MapSqlParameterSource("limit", limit), rs -> {
+                    ids.add(rs.getLong("id"));
+                    bitmaps.computeIfAbsent(new BitmapKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                    rs.getTimestamp("bucket").toLocalDateTime()), key -> new IpBitmap())
+                            .merge(IpBitmap.fromBytes(rs.getBytes("bitmap")));
+                });
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        List<BitmapKey> keys = new ArrayList<>(bitmaps.keySet());
+        MapSqlParameterSource[] batch = keys.stream()
+                .map(key -> toParameters(key, bitmaps.get(key)))
+                .toArray(MapSqlParameterSource[]::new);
+        int[] inserted = jdbcTemplate.batchUpdate(insert, batch);
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (inserted[i] != 1) {
+                merge(keys.get(i), bitmaps.get(keys.get(i)));
+            }
+        }
+        // Pending bitmaps are removed by ids, bitmaps with lower ids may be committed after they were read
+        jdbcTemplate.update("delete from " + PENDING_TABLE + " where id in (:ids)",
+                new MapSqlParameterSource("ids", ids));
+        return ids.size();
+    }
+
+    /**
+     * Get merged sets of unique IPs per (app, uri)
+     * from day bitmaps and raw hits of the segments
+     *
+     * @param segments of requested range
+     * @param uriIds   list of ids of URIs, null for all URIs
+     * @param ipv6Ids  ids of IPv6 addresses of raw hits
+     * @return sets of IPs by (app, uri)
+     */
+    public Map<StatKey, IpBitmap> getBitmaps(List<RollupSegment> segments, List<Integer> uriIds,
+                                             ToIntFunction<byte[]> ipv6Ids) {
+        Map<StatKey, IpBitmap> result = new HashMap<>();
+        String uriFilter = uriIds != null ? " and uri_id in (:uriIds)" : "";
+
+        for (RollupSegment segment : segments) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource()
+                    .addValue("from", Timestamp.valueOf(segment.getFrom()))
+                    .addValue("to", Timestamp.valueOf(segment.getTo()))
+                    .addValue("uriIds", uriIds);
+            if (segment.getLevel() == null) {
+                jdbcTemplate.query("select distinct app_id, uri_id, ip from statistics " +
+                        "where time_stamp >= :from and time_stamp < :to" + uriFilter, parameters, rs -> {
+                            IpBitmap bitmap = result.computeIfAbsent(
+                                    new StatKey(rs.getInt("app_id"), rs.getInt("uri_id")), key -> new IpBitmap());
+                            byte[] ip = rs.getBytes("ip");
+                            if (ip.length == 4) {
+                                bitmap.addIpv4(ip);
+                            } else {
+                                bitmap.addIpv6(ipv6Ids.applyAsInt(ip));
+                            }
+                        });
+            } else {
+                // Pending bitmaps first, bitmaps merged meanwhile are read from bitmaps of days
+                for (String table : List.of(PENDING_TABLE, TABLE)) {
+                    jdbcTemplate.query("select app_id, uri_id, bitmap from " + table +
+                            " where bucket >= :from and bucket < :to" + uriFilter, parameters, rs -> {
+                                result.computeIfAbsent(new StatKey(rs.getInt("app_id"), rs.getInt("uri_id")),
+                                        key -> new IpBitmap()).merge(IpBitmap.fromBytes(rs.getBytes("bitmap")));
+                            });
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addPending(Map<BitmapKey, IpBitmap> bitmaps) {
+        if (bitmaps.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(PENDING_INSERT, bitmaps.entrySet().stream()
+                .map(entry -> toParameters(entry.getKey(), entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new));
+    }
+
+    private void merge(BitmapKey key, IpBitmap bitmap) {
+        MapSqlParameterSource parameters = toParameters(key, bitmap);
+        byte[] stored = jdbcTemplate.queryForObject(SELECT_FOR_UPDATE, parameters, byte[].class);
+        IpBitmap merged = IpBitmap.fromBytes(stored);
+        if (merged.merge(bitmap)) {
+            parameters.addValue("bitmap", merged.toBytes());
+            jdbcTemplate.update(UPDATE, parameters);
+        }
+    }
+
+    private static MapSqlParameterSource toParameters(BitmapKey key, IpBitmap bitmap) {
+        return new MapSqlParameterSource()
+                .addValue("uriId", key.getUriId())
+                .addValue("bucket", Timestamp.valueOf(key.getBucket()))
+                .addValue("appId", key.getAppId())
+                .addValue("bitmap", bitmap.toBytes());
+    }
+
+    /**
+     * Class key of bitmap row
+     */
+    @Data
+    private static class BitmapKey {
+        private final int appId;
+        private final int uriId;
+        private final LocalDateTime bucket;
+    }
+}
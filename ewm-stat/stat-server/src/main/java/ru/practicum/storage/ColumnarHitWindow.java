@@ -0,0 +1,298 @@
+package ru.practicum.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.Statistics;
+import ru.practicum.util.LongLongHashMap;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Class in-memory window of recent hits stored by columns:
+ * time in epoch seconds, ids of app, URI and IP.
+ * Window has every hit since its covered time,
+ * it is loaded from storage on start and updated after hits are committed.
+ * Hits are kept in chunks, chunks older than the window are dropped.
+ * One thread appends hits, any number of threads read them
+ */
+@Slf4j
+@Repository
+public class ColumnarHitWindow {
+    private final boolean enabled;
+    private final int days;
+    private final int chunkSize;
+    private final HitBatchRepository hitBatchRepository;
+    private final SegmentHitStore segmentHitStore;
+
+    private final List<Chunk> chunks = new CopyOnWriteArrayList<>();
+    // IPs are numbered by the appending thread only, numbers of IPs absent from kept chunks are dropped
+    private final Map<ByteBuffer, IpNumber> ipIds = new HashMap<>();
+    private int nextIpId;
+    private long nextChunk;
+    // Hits older than covered time may be missing, Long.MAX_VALUE - window is not loaded
+    private volatile long coveredFrom = Long.MAX_VALUE;
+
+    @Autowired
+    public ColumnarHitWindow(HitBatchRepository hitBatchRepository, SegmentHitStore segmentHitStore,
+                             @Value("${stat-server.window.enabled:true}") boolean enabled,
+                             @Value("${stat-server.window.days:7}") int days,
+                             @Value("${stat-server.window.chunk-size:65536}") int chunkSize) {
+        this.hitBatchRepository = hitBatchRepository;
+        this.segmentHitStore = segmentHitStore;
+        this.enabled = enabled;
+        this.days = days;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Load hits of the window from storage,
+     * it is done before the server accepts hits
+     */
+    @PostConstruct
+    public synchronized void load() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime from = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusDays(days);
+        if (segmentHitStore.isEnabled()) {
+            segmentHitStore.forEachSince(from, this::append);
+        } else {
+            hitBatchRepository.forEachSince(from, this::append);
+        }
+        coveredFrom = from.toEpochSecond(ZoneOffset.UTC);
+        log.info("Loaded {} hits since {} to in-memory window", size(), from);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add committed hits to the window
+     *
+     * @param hits to add
+     */
+    public synchronized void add(List<Statistics> hits) {
+        if (coveredFrom == Long.MAX_VALUE) {
+            return;
+        }
+        for (Statistics hit : hits) {
+            append(hit);
+        }
+    }
+
+    /**
+     * Get current state of the window
+     *
+     * @return snapshot of the window
+     */
+    public Snapshot snapshot() {
+        // Chunks are taken before covered time, it is moved forward before chunks are dropped
+        List<Chunk> current = List.copyOf(chunks);
+        return new Snapshot(current, coveredFrom);
+    }
+
+    private void append(Statistics hit) {
+        long time = hit.getTimeStamp().toEpochSecond(ZoneOffset.UTC);
+        if (time < coveredFrom && coveredFrom != Long.MAX_VALUE) {
+            return;
+        }
+
+        Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.count == chunkSize) {
+            if (coveredFrom != Long.MAX_VALUE) {
+                evict();
+            }
+            chunk = new Chunk(nextChunk++, chunkSize);
+            chunks.add(chunk);
+        }
+        IpNumber ipNumber = ipIds.computeIfAbsent(ByteBuffer.wrap(hit.getIp()), ip -> new IpNumber(nextIpId++));
+        ipNumber.lastChunk = chunk.number;
+        chunk.append(time, hit.getAppId(), hit.getUriId(), ipNumber.id);
+    }
+
+    private void evict() {
+        long windowStart = LocalDateTime.now().minusDays(days).toEpochSecond(ZoneOffset.UTC);
+        boolean evicted = false;
+        for (Chunk chunk : chunks) {
+            if (chunk.maxTime < windowStart) {
+                coveredFrom = Math.max(coveredFrom, chunk.maxTime + 1);
+                chunks.remove(chunk);
+                evicted = true;
+            }
+        }
+        if (!evicted) {
+            return;
+        }
+        // IPs last seen before the oldest kept chunk are not referenced by any chunk
+        long oldestChunk = chunks.stream().mapToLong(chunk -> chunk.number).min().orElse(Long.MAX_VALUE);
+        ipIds.values().removeIf(ipNumber -> ipNumber.lastChunk < oldestChunk);
+        if (ipIds.isEmpty()) {
+            nextIpId = 0;
+        }
+    }
+
+    private int size() {
+        return chunks.stream().mapToInt(chunk -> chunk.count).sum();
+    }
+
+    /**
+     * Class snapshot of the window
+     * with hits since covered time
+     */
+    public static class Snapshot {
+        private final List<Chunk> chunks;
+        private final long coveredFrom;
+
+        private Snapshot(List<Chunk> chunks, long coveredFrom) {
+            this.chunks = chunks;
+            this.coveredFrom = coveredFrom;
+        }
+
+        /**
+         * Check if the window has every hit of period
+         *
+         * @param start of period
+         * @return true if period starts in the window
+         */
+        public boolean covers(LocalDateTime start) {
+            return start.toEpochSecond(ZoneOffset.UTC) >= coveredFrom;
+        }
+
+        /**
+         * Get time of the oldest hit in the window
+         *
+         * @return covered time, null if window is not loaded
+         */
+        public LocalDateTime getCoveredFrom() {
+            return coveredFrom == Long.MAX_VALUE ? null : LocalDateTime.ofEpochSecond(coveredFrom, 0, ZoneOffset.UTC);
+        }
+
+        /**
+         * Count hits of period grouped by app and URI
+         *
+         * @param start    of period, not before covered time
+         * @param end      of period, inclusive
+         * @param uriIds   ids of URIs, null - all URIs
+         * @param unique   count only unique IPs
+         * @param consumer of counts sorted by number of hits
+         */
+        public void getHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, boolean unique,
+                            Consumer<StatCount> consumer) {
+            long from = start.toEpochSecond(ZoneOffset.UTC);
+            long to = end.toEpochSecond(ZoneOffset.UTC);
+            LongLongHashMap uriFilter = null;
+            if (uriIds != null) {
+                uriFilter = new LongLongHashMap(uriIds.size());
+                for (int uriId : uriIds) {
+                    uriFilter.putIfAbsent(uriId, 0);
+                }
+            }
+
+            // Without unique: (app, uri) -> hits, with unique: (app, uri) -> number of group
+            LongLongHashMap groups = new LongLongHashMap();
+            LongLongHashMap groupIps = unique ? new LongLongHashMap(1024) : null;
+            long[] uniqueHits = new long[16];
+            for (Chunk chunk : chunks) {
+                int count = chunk.count;
+                if (count == 0 || chunk.minTime > to || chunk.maxTime < from) {
+                    continue;
+                }
+                long[] times = chunk.times;
+                int[] appIds = chunk.appIds;
+                int[] uriIdColumn = chunk.uriIds;
+                int[] ipIdColumn = chunk.ipIds;
+                for (int i = 0; i < count; i++) {
+                    long time = times[i];
+                    if (time < from || time > to) {
+                        continue;
+                    }
+                    int uriId = uriIdColumn[i];
+                    if (uriFilter != null && uriFilter.get(uriId, -1) < 0) {
+                        continue;
+                    }
+                    long key = ((long) appIds[i] << 32) | (uriId & 0xFFFFFFFFL);
+                    if (!unique) {
+                        groups.addTo(key, 1);
+                        continue;
+                    }
+                    long group = groups.get(key, -1);
+                    if (group < 0) {
+                        group = groups.size();
+                        groups.putIfAbsent(key, group);
+                        if (group == uniqueHits.length) {
+                            uniqueHits = Arrays.copyOf(uniqueHits, uniqueHits.length * 2);
+                        }
+                    }
+                    if (groupIps.putIfAbsent((group << 32) | (ipIdColumn[i] & 0xFFFFFFFFL), 0)) {
+                        uniqueHits[(int) group]++;
+                    }
+                }
+            }
+
+            List<StatCount> counts = new ArrayList<>(groups.size());
+            long[] hits = uniqueHits;
+            groups.forEach((key, value) -> counts.add(new StatCount((int) (key >>> 32), (int) key,
+                    unique ? hits[(int) value] : value)));
+            counts.sort(Comparator.comparingLong(StatCount::getHits).reversed());
+            counts.forEach(consumer);
+        }
+    }
+
+    private static class Chunk {
+        private final long number;
+        private final long[] times;
+        private final int[] appIds;
+        private final int[] uriIds;
+        private final int[] ipIds;
+        // Hits up to count are written completely, count is published after hit and time range
+        private volatile int count;
+        private volatile long minTime = Long.MAX_VALUE;
+        private volatile long maxTime = Long.MIN_VALUE;
+
+        private Chunk(long number, int size) {
+            this.number = number;
+            times = new long[size];
+            appIds = new int[size];
+            uriIds = new int[size];
+            ipIds = new int[size];
+        }
+
+        private void append(long time, int appId, int uriId, int ipId) {
+            int index = count;
+            times[index] = time;
+            appIds[index] = appId;
+            uriIds[index] = uriId;
+            ipIds[index] = ipId;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            count = index + 1;
+        }
+    }
+
+    private static class IpNumber {
+        private final int id;
+        // Number of the newest chunk with the IP
+        private long lastChunk;
+
+        private IpNumber(int id) {
+            this.id = id;
+        }
+    }
+}
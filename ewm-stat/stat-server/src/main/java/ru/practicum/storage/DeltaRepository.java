@@ -0,0 +1,282 @@
+package ru.practicum.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.StatKey;
+import ru.practicum.model.Statistics;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Class repository for log of changes of hit counts.
+ * Every write of hits adds counts per (app, uri) under its own number of database sequence stat_delta_seq,
+ * so concurrent writes do not wait for each other.
+ * Numbers are committed out of order, the current number saved in stat_sequence is moved
+ * only up to the number below the oldest write still in progress,
+ * so every change up to the current number is visible.
+ * Writes in progress are tracked in memory, so only one server writes to a database of statistics.
+ * It is enforced by a lease in stat_lease: server does not start while another one holds it,
+ * writes fail and the current number is not moved after the lease is lost
+ */
+@Slf4j
+@Repository
+public class DeltaRepository {
+    private static final String SEQUENCE = "delta";
+    private static final String PRUNED = "delta_pruned";
+    private static final String LEASE = "delta";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String nextValue;
+    private final String owner = UUID.randomUUID().toString();
+    private final long leaseMillis;
+
+    private volatile long leasedUntil;
+    private volatile boolean released;
+
+    private final NavigableSet<Long> inProgress = new TreeSet<>();
+    private long allocated;
+    private long published;
+
+    @Autowired
+    public DeltaRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource,
+                           @Value("${stat-server.delta.lease-ms:30000}") long leaseMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.leaseMillis = leaseMillis;
+        this.nextValue = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL
+                ? "select nextval('stat_delta_seq')"
+                : "select next value for stat_delta_seq";
+    }
+
+    /**
+     * Take lease and move database sequence after the current number,
+     * numbers of databases created before the sequence were taken from sequence row.
+     * Lease of a server stopped without releasing it is taken after it expires
+     */
+    @PostConstruct
+    public synchronized void load() {
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        while (!renewLease()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Log of changes of hit counts is written by another stat server " +
+                        "of the database, only one server may write to it.");
+            }
+            try {
+                Thread.sleep(Math.min(1000, leaseMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for lease of log of changes.", e);
+            }
+        }
+        published = getCurrent();
+        allocated = published;
+        if (nextValue() <= published) {
+            jdbcTemplate.getJdbcTemplate().execute("alter sequence stat_delta_seq restart with " + (published + 1));
+        }
+    }
+
+    /**
+     * Release lease, so another server may start at once
+     */
+    @PreDestroy
+    public void release() {
+        released = true;
+        leasedUntil = 0;
+        jdbcTemplate.update("delete from stat_lease where name = :name and owner = :owner",
+                new MapSqlParameterSource()
+                        .addValue("name", LEASE)
+                        .addValue("owner", owner));
+    }
+
+    /**
+     * Take or renew lease of the log of changes,
+     * lease of another server is taken only after it expires
+     *
+     * @return true if lease is held by this server
+     */
+    public boolean renewLease() {
+        // Renewal running while server stops does not take released lease again
+        if (released) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("name", LEASE)
+                .addValue("owner", owner)
+                .addValue("now", new Timestamp(now))
+                .addValue("expiresAt", new Timestamp(now + leaseMillis));
+        int updated = jdbcTemplate.update("update stat_lease set owner = :owner, expires_at = :expiresAt " +
+                "where name = :name and (owner = :owner or expires_at < :now)", parameters);
+        if (updated == 0) {
+            try {
+                updated = jdbcTemplate.update("insert into stat_lease (name, owner, expires_at) " +
+                        "select :name, :owner, :expiresAt " +
+                        "where not exists (select 1 from stat_lease where name = :name)", parameters);
+            } catch (DuplicateKeyException e) {
+                // Inserted by another server at the same time
+                updated = 0;
+            }
+        }
+        if (updated == 0) {
+            return false;
+        }
+        leasedUntil = now + leaseMillis;
+        return true;
+    }
+
+    /**
+     * Take the next sequence number for a write
+     * Every taken number should be completed after the write transaction ends
+     *
+     * @return sequence number
+     */
+    public synchronized long start() {
+        if (System.currentTimeMillis() >= leasedUntil) {
+            throw new IllegalStateException("Lease of log of changes of hit counts is not renewed, " +
+                    "hits are not written.");
+        }
+        // Number is taken under the lock, so the current number never passes a taken one
+        long seq = nextValue();
+        inProgress.add(seq);
+        allocated = Math.max(allocated, seq);
+        return seq;
+    }
+
+    /**
+     * Complete write after its transaction is committed or rolled back
+     * and move the current number up to the oldest write in progress.
+     * Should be called outside of transaction
+     *
+     * @param seq number taken by {@link #start()}
+     */
+    public void complete(long seq) {
+        long current;
+        synchronized (this) {
+            inProgress.remove(seq);
+            current = inProgress.isEmpty() ? allocated : inProgress.first() - 1;
+            if (current <= published) {
+                return;
+            }
+            published = current;
+        }
+        // Server which lost lease does not know writes of the new owner
+        int updated = jdbcTemplate.update("update stat_sequence set seq = :seq where name = :name and seq < :seq " +
+                        "and exists (select 1 from stat_lease where name = :lease and owner = :owner)",
+                new MapSqlParameterSource()
+                        .addValue("seq", current)
+                        .addValue("name", SEQUENCE)
+                        .addValue("lease", LEASE)
+                        .addValue("owner", owner));
+        if (updated == 0 && System.currentTimeMillis() >= leasedUntil) {
+            log.warn("Current number of changes is not moved to {}, lease is lost", current);
+        }
+    }
+
+    /**
+     * Add counts of hits under the taken sequence number
+     * Should be called in write transaction
+     *
+     * @param seq  number taken by {@link #start()}
+     * @param hits to add, should have ids of app and URI
+     */
+    public void add(long seq, List<Statistics> hits) {
+        Map<StatKey, Long> counts = new LinkedHashMap<>();
+        for (Statistics hit : hits) {
+            counts.merge(new StatKey(hit.getAppId(), hit.getUriId()), 1L, Long::sum);
+        }
+        Timestamp created = Timestamp.valueOf(LocalDateTime.now());
+        MapSqlParameterSource[] batch = counts.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("seq", seq)
+                        .addValue("appId", entry.getKey().getAppId())
+                        .addValue("uriId", entry.getKey().getUriId())
+                        .addValue("hits", entry.getValue())
+                        .addValue("created", created))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("insert into stat_delta (seq, app_id, uri_id, hits, created) " +
+                "values (:seq, :appId, :uriId, :hits, :created)", batch);
+    }
+
+    /**
+     * Current sequence number, every change up to it is committed
+     *
+     * @return sequence number
+     */
+    public long getCurrent() {
+        return get(SEQUENCE);
+    }
+
+    /**
+     * Sequence number up to which changes were removed
+     *
+     * @return sequence number
+     */
+    public long getPruned() {
+        return get(PRUNED);
+    }
+
+    /**
+     * Get summed counts of hits per (app, uri) of changes in range
+     *
+     * @param after    sequence number of the last seen change
+     * @param upTo     sequence number of the last change to read
+     * @param consumer of counts ordered by hits
+     */
+    public void getHits(long after, long upTo, Consumer<StatCount> consumer) {
+        jdbcTemplate.query("select app_id, uri_id, sum(hits) as total from stat_delta " +
+                        "where seq > :after and seq <= :upTo group by app_id, uri_id order by total desc",
+                new MapSqlParameterSource()
+                        .addValue("after", after)
+                        .addValue("upTo", upTo),
+                rs -> {
+                    consumer.accept(new StatCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("total")));
+                });
+    }
+
+    /**
+     * Remove changes added before time
+     *
+     * @param before time of the oldest change to keep
+     * @return number of removed rows
+     */
+    public int prune(LocalDateTime before) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("before", Timestamp.valueOf(before));
+        Long seq = jdbcTemplate.queryForObject("select max(seq) from stat_delta where created < :before",
+                parameters, Long.class);
+        if (seq == null) {
+            return 0;
+        }
+        // Cursors are checked against pruned number first, so it is moved before rows are removed
+        jdbcTemplate.update("update stat_sequence set seq = :seq where name = :name and seq < :seq",
+                new MapSqlParameterSource()
+                        .addValue("seq", seq)
+                        .addValue("name", PRUNED));
+        return jdbcTemplate.update("delete from stat_delta where seq <= :seq",
+                new MapSqlParameterSource("seq", seq));
+    }
+
+    private long nextValue() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject(nextValue, Long.class);
+    }
+
+    private long get(String name) {
+        return jdbcTemplate.queryForObject("select seq from stat_sequence where name = :name",
+                new MapSqlParameterSource("name", name), Long.class);
+    }
+}
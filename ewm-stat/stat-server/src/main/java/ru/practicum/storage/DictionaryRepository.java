@@ -0,0 +1,74 @@
+package ru.practicum.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Class repository for dictionaries of apps and URIs:
+ * tables of (id, name) with unique names
+ */
+@Repository
+public class DictionaryRepository {
+    public static final String APPS = "stat_app";
+    public static final String URIS = "stat_uri";
+    public static final String IPV6 = "stat_ipv6";
+
+    private static final String POSTGRESQL_INSERT = "insert into %s (name) values (?) on conflict (name) do nothing";
+    private static final String H2_INSERT = "merge into %s as d using (values (cast(? as varchar(512)))) as s(name) " +
+            "on d.name = s.name when not matched then insert (name) values (s.name)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String insert;
+
+    @Autowired
+    public DictionaryRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.insert = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL ? POSTGRESQL_INSERT : H2_INSERT;
+    }
+
+    /**
+     * Get id of name, add name if it is absent
+     *
+     * @param table of dictionary
+     * @param name  to find
+     * @return id of name
+     */
+    public int getOrCreate(String table, String name) {
+        jdbcTemplate.update(String.format(insert, table), name);
+        Integer id = find(table, name);
+        if (id == null) {
+            throw new IllegalStateException("Name was not added to dictionary " + table + ": " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Find id of name
+     *
+     * @param table of dictionary
+     * @param name  to find
+     * @return id of name or null if name is absent
+     */
+    public Integer find(String table, String name) {
+        List<Integer> ids = jdbcTemplate.queryForList("select id from " + table + " where name = ?",
+                Integer.class, name);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Find name by id
+     *
+     * @param table of dictionary
+     * @param id    to find
+     * @return name or null if id is absent
+     */
+    public String findName(String table, int id) {
+        List<String> names = jdbcTemplate.queryForList("select name from " + table + " where id = ?",
+                String.class, id);
+        return names.isEmpty() ? null : names.get(0);
+    }
+}
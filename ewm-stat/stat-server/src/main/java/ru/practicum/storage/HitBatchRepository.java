@@ -0,0 +1,78 @@
+package ru.practicum.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.Statistics;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Class repository for batch insert of hits
+ * with plain JDBC batches
+ * and for reading of raw hits
+ */
+@Repository
+public class HitBatchRepository {
+    private static final String INSERT_HIT = "insert into statistics (app_id, uri_id, ip, time_stamp) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public HitBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Insert hits with JDBC batches
+     *
+     * @param hits      to insert
+     * @param batchSize max number of rows in one batch
+     * @return number of inserted rows per batch
+     */
+    public List<Integer> saveAll(List<Statistics> hits, int batchSize) {
+        int[][] counts = jdbcTemplate.batchUpdate(INSERT_HIT, hits, batchSize, (ps, hit) -> {
+            ps.setInt(1, hit.getAppId());
+            ps.setInt(2, hit.getUriId());
+            ps.setBytes(3, hit.getIp());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getTimeStamp()));
+        });
+
+        List<Integer> result = new ArrayList<>(counts.length);
+        for (int[] batch : counts) {
+            int accepted = 0;
+            for (int count : batch) {
+                // Driver may report success without the number of rows
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    accepted++;
+                }
+            }
+            result.add(accepted);
+        }
+        return result;
+    }
+
+    /**
+     * Read hits since time
+     * row by row
+     *
+     * @param from     time of the oldest hit
+     * @param consumer of hits
+     */
+    public void forEachSince(LocalDateTime from, Consumer<Statistics> consumer) {
+        jdbcTemplate.query("select app_id, uri_id, ip, time_stamp from statistics where time_stamp >= ?",
+                rs -> {
+                    consumer.accept(Statistics.builder()
+                            .appId(rs.getInt("app_id"))
+                            .uriId(rs.getInt("uri_id"))
+                            .ip(rs.getBytes("ip"))
+                            .timeStamp(rs.getTimestamp("time_stamp").toLocalDateTime())
+                            .build());
+                }, Timestamp.valueOf(from));
+    }
+}
@@ -0,0 +1,203 @@
+package ru.practicum.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.StatKey;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.util.IpConverter;
+
+import javax.sql.DataSource;
+import javax.validation.ValidationException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class initializer of statistics schema
+ * migrating databases written when apps, URIs and IPs were stored as strings.
+ * Old tables are changed in place: columns of ids are added before schema scripts,
+ * after them ids are filled from dictionaries, IPs are converted to bytes and string columns are dropped.
+ * Old sketches hashed IP strings, so sketches since the oldest raw hit are rebuilt from raw hits,
+ * older sketches are kept. Hits with malformed IPs are removed from raw hits and rollups.
+ * On PostgreSQL the migration after schema scripts runs in one transaction
+ */
+@Slf4j
+@Component
+public class LegacySchemaMigration extends SqlDataSourceScriptDatabaseInitializer {
+    private static final String STATISTICS = "statistics";
+    private static final String LEGACY_COLUMN = "service";
+    private static final int CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public LegacySchemaMigration(DataSource dataSource, SqlInitializationProperties properties) {
+        super(dataSource, properties);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @Override
+    public boolean initializeDatabase() {
+        boolean legacy = hasColumn(STATISTICS, LEGACY_COLUMN);
+        if (legacy) {
+            // Schema scripts index uri_id of statistics, index of old uri column has the same prefix
+            jdbcTemplate.execute("alter table statistics add column if not exists app_id integer");
+            jdbcTemplate.execute("alter table statistics add column if not exists uri_id integer");
+            jdbcTemplate.execute("alter table statistics add column if not exists ip_bytes bytea");
+            jdbcTemplate.execute("drop index if exists statistics_uri_time_stamp_idx");
+        }
+        boolean initialized = super.initializeDatabase();
+        if (legacy && initialized) {
+            log.info("Migrating statistics to ids of apps and URIs and bytes of IPs");
+            transactionTemplate.executeWithoutResult(status -> migrate());
+            log.info("Migrated statistics");
+        }
+        return initialized;
+    }
+
+    private void migrate() {
+        List<String> tables = new ArrayList<>();
+        tables.add(STATISTICS);
+        for (RollupLevel level : RollupLevel.values()) {
+            tables.add(level.getTable(RollupRepository.TABLE_PREFIX));
+        }
+        for (RollupLevel level : SketchRepository.LEVELS) {
+            tables.add(level.getTable(SketchRepository.TABLE_PREFIX));
+        }
+        tables.removeIf(table -> !hasColumn(table, LEGACY_COLUMN));
+
+        for (String table : tables) {
+            jdbcTemplate.execute("alter table " + table + " add column if not exists app_id integer");
+            jdbcTemplate.execute("alter table " + table + " add column if not exists uri_id integer");
+            jdbcTemplate.update("insert into " + DictionaryRepository.APPS + " (name) select distinct service from " +
+                    table + " where service not in (select name from " + DictionaryRepository.APPS + ")");
+            jdbcTemplate.update("insert into " + DictionaryRepository.URIS + " (name) select distinct uri from " +
+                    table + " where uri not in (select name from " + DictionaryRepository.URIS + ")");
+            jdbcTemplate.update("update " + table + " t set " +
+                    "app_id = (select id from " + DictionaryRepository.APPS + " d where d.name = t.service), " +
+                    "uri_id = (select id from " + DictionaryRepository.URIS + " d where d.name = t.uri) " +
+                    "where app_id is null or uri_id is null");
+        }
+        convertIps();
+        rebuildSketches();
+
+        for (String table : tables) {
+            if (table.equals(STATISTICS)) {
+                continue;
+            }
+            // Primary key of old tables includes string columns
+            jdbcTemplate.queryForList("select constraint_name from information_schema.table_constraints " +
+                            "where constraint_type = 'PRIMARY KEY' and lower(table_name) = ? " +
+                            "and table_schema = current_schema", String.class, table)
+                    .forEach(name -> jdbcTemplate.execute("alter table " + table + " drop constraint " + name));
+            dropStrings(table);
+            jdbcTemplate.execute("alter table " + table + " add primary key (uri_id, bucket, app_id)");
+        }
+        jdbcTemplate.execute("alter table statistics alter column ip_bytes set not null");
+        jdbcTemplate.execute("alter table statistics drop column ip");
+        jdbcTemplate.execute("alter table statistics rename column ip_bytes to ip");
+        dropStrings(STATISTICS);
+    }
+
+    private void convertIps() {
+        int removed = 0;
+        long lastId = Long.MIN_VALUE;
+        List<Map<String, Object>> rows;
+        do {
+            rows = jdbcTemplate.queryForList("select id, app_id, uri_id, ip, time_stamp from statistics " +
+                    "where ip_bytes is null and id > ? order by id limit ?", lastId, CHUNK);
+            List<Object[]> converted = new ArrayList<>();
+            List<Object[]> malformed = new ArrayList<>();
+            for (Map<String, Object> row : rows) {
+                long id = ((Number) row.get("id")).longValue();
+                try {
+                    converted.add(new Object[]{IpConverter.toBytes((String) row.get("ip")), id});
+                } catch (ValidationException e) {
+                    malformed.add(new Object[]{id});
+                    removeFromRollups(row);
+                }
+                lastId = id;
+            }
+            jdbcTemplate.batchUpdate("update statistics set ip_bytes = ? where id = ?", converted);
+            jdbcTemplate.batchUpdate("delete from statistics where id = ?", malformed);
+            removed += malformed.size();
+        } while (rows.size() == CHUNK);
+
+        if (removed > 0) {
+            for (RollupLevel level : RollupLevel.values()) {
+                jdbcTemplate.update("delete from " + level.getTable(RollupRepository.TABLE_PREFIX) + " where hits <= 0");
+            }
+            log.warn("Removed {} hits with malformed IP addresses", removed);
+        }
+    }
+
+    private void removeFromRollups(Map<String, Object> hit) {
+        LocalDateTime time = ((Timestamp) hit.get("time_stamp")).toLocalDateTime();
+        for (RollupLevel level : RollupLevel.values()) {
+            jdbcTemplate.update("update " + level.getTable(RollupRepository.TABLE_PREFIX) + " set hits = hits - 1 " +
+                            "where uri_id = ? and bucket = ? and app_id = ?",
+                    hit.get("uri_id"), Timestamp.valueOf(level.floor(time)), hit.get("app_id"));
+        }
+    }
+
+    private void rebuildSketches() {
+        LocalDateTime oldest = jdbcTemplate.queryForObject("select min(time_stamp) from statistics",
+                LocalDateTime.class);
+        if (oldest == null) {
+            return;
+        }
+        for (RollupLevel level : SketchRepository.LEVELS) {
+            jdbcTemplate.update("delete from " + level.getTable(SketchRepository.TABLE_PREFIX) + " where bucket >= ?",
+                    Timestamp.valueOf(level.floor(oldest)));
+        }
+
+        // Pending sketches of hours are merged into every level by SketchMerger,
+        // sketches of the same hour from different chunks are merged there too
+        long lastId = Long.MIN_VALUE;
+        List<Map<String, Object>> rows;
+        do {
+            rows = jdbcTemplate.queryForList("select id, app_id, uri_id, ip_bytes, time_stamp from statistics " +
+                    "where id > ? order by id limit ?", lastId, CHUNK);
+            Map<LocalDateTime, Map<StatKey, HyperLogLog>> sketches = new HashMap<>();
+            for (Map<String, Object> row : rows) {
+                LocalDateTime hour = RollupLevel.HOUR.floor(((Timestamp) row.get("time_stamp")).toLocalDateTime());
+                StatKey key = new StatKey(((Number) row.get("app_id")).intValue(),
+                        ((Number) row.get("uri_id")).intValue());
+                sketches.computeIfAbsent(hour, h -> new HashMap<>())
+                        .computeIfAbsent(key, k -> new HyperLogLog()).add((byte[]) row.get("ip_bytes"));
+                lastId = ((Number) row.get("id")).longValue();
+            }
+            List<Object[]> batch = new ArrayList<>();
+            sketches.forEach((hour, byKey) -> byKey.forEach((key, sketch) -> batch.add(new Object[]{
+                    key.getUriId(), Timestamp.valueOf(hour), key.getAppId(), sketch.toBytes()})));
+            jdbcTemplate.batchUpdate("insert into " + SketchRepository.PENDING_TABLE +
+                    " (uri_id, bucket, app_id, sketch) values (?, ?, ?, ?)", batch);
+        } while (rows.size() == CHUNK);
+    }
+
+    private void dropStrings(String table) {
+        jdbcTemplate.execute("alter table " + table + " alter column app_id set not null");
+        jdbcTemplate.execute("alter table " + table + " alter column uri_id set not null");
+        jdbcTemplate.execute("alter table " + table + " drop column uri");
+        jdbcTemplate.execute("alter table " + table + " drop column " + LEGACY_COLUMN);
+    }
+
+    private boolean hasColumn(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from information_schema.columns " +
+                        "where lower(table_name) = ? and lower(column_name) = ? and table_schema = current_schema",
+                Integer.class, table, column);
+        return count != null && count > 0;
+    }
+}
@@ -0,0 +1,143 @@
+package ru.practicum.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Class repository for monthly partitions of statistics table
+ * and removal of old hits
+ */
+@Repository
+public class PartitionRepository {
+    public static final String DEFAULT_PARTITION = "statistics_default";
+
+    private static final String PARTITION_PREFIX = "statistics_y";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public PartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Check if statistics table is partitioned
+     * Works only with PostgreSQL
+     *
+     * @return true if table is partitioned
+     */
+    public boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from pg_partitioned_table as pt " +
+                "join pg_class as c on c.oid = pt.partrelid " +
+                "where c.relname = 'statistics'", Integer.class);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Get months of existing monthly partitions
+     *
+     * @return list of months
+     */
+    public List<YearMonth> getPartitionMonths() {
+        return jdbcTemplate.queryForList("select c.relname from pg_inherits as i " +
+                        "join pg_class as c on c.oid = i.inhrelid " +
+                        "join pg_class as p on p.oid = i.inhparent " +
+                        "where p.relname = 'statistics' and c.relname like 'statistics\\_y%'", String.class)
+                .stream()
+                .map(PartitionRepository::toMonth)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get months of hits stored in default partition
+     *
+     * @param from first month to look for
+     * @return list of months
+     */
+    public List<YearMonth> getDefaultPartitionMonths(YearMonth from) {
+        return jdbcTemplate.queryForList("select distinct date_trunc('month', time_stamp) from " + DEFAULT_PARTITION +
+                        " where time_stamp >= ?", Timestamp.class, Timestamp.valueOf(toStart(from)))
+                .stream()
+                .map(timestamp -> YearMonth.from(timestamp.toLocalDateTime()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create partition for the month
+     * Hits of the month are moved from default partition first,
+     * should be called in transaction
+     *
+     * @param month of partition
+     */
+    public void createPartition(YearMonth month) {
+        String name = toName(month);
+        String from = toStart(month).toString();
+        String to = toStart(month.plusMonths(1)).toString();
+
+        jdbcTemplate.execute("lock table " + DEFAULT_PARTITION + " in exclusive mode");
+        jdbcTemplate.execute("create table " + name + " (like statistics including defaults)");
+        jdbcTemplate.update("with moved as (delete from " + DEFAULT_PARTITION +
+                " where time_stamp >= '" + from + "' and time_stamp < '" + to + "' returning *) " +
+                "insert into " + name + " select * from moved");
+        jdbcTemplate.execute("alter table statistics attach partition " + name +
+                " for values from ('" + from + "') to ('" + to + "')");
+    }
+
+    /**
+     * Drop partition of the month
+     *
+     * @param month of partition
+     */
+    public void dropPartition(YearMonth month) {
+        jdbcTemplate.execute("drop table " + toName(month));
+    }
+
+    /**
+     * Detach partition of the month
+     * Table is kept for archiving
+     *
+     * @param month of partition
+     */
+    public void detachPartition(YearMonth month) {
+        jdbcTemplate.execute("alter table statistics detach partition " + toName(month));
+    }
+
+    /**
+     * Delete chunk of hits older than time
+     *
+     * @param table  to delete from
+     * @param before time of the oldest hit to keep
+     * @param chunk  max number of rows to delete
+     * @return number of deleted rows
+     */
+    public int deleteOlderThan(String table, LocalDateTime before, int chunk) {
+        return jdbcTemplate.update("delete from " + table + " where id in " +
+                "(select id from " + table + " where time_stamp < ? limit ?)", Timestamp.valueOf(before), chunk);
+    }
+
+    /**
+     * Start of the month
+     *
+     * @param month to convert
+     * @return time of start
+     */
+    public static LocalDateTime toStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay();
+    }
+
+    private static String toName(YearMonth month) {
+        return String.format("%s%04dm%02d", PARTITION_PREFIX, month.getYear(), month.getMonthValue());
+    }
+
+    private static YearMonth toMonth(String name) {
+        String[] parts = name.substring(PARTITION_PREFIX.length()).split("m");
+        return YearMonth.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+}
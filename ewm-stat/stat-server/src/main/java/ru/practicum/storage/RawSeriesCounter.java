@@ -0,0 +1,47 @@
+package ru.practicum.storage;
+
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.SeriesCount;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Class counter of hits and exact unique IPs
+ * per time bucket of raw hits
+ */
+class RawSeriesCounter {
+    private final long bucketSeconds;
+    private final Map<Long, long[]> hits = new TreeMap<>();
+    private final Map<Long, Set<ByteBuffer>> ips = new TreeMap<>();
+
+    /**
+     * @param level of buckets, buckets should have fixed length
+     */
+    RawSeriesCounter(RollupLevel level) {
+        this.bucketSeconds = level.getUnit().getDuration().getSeconds();
+    }
+
+    void add(long time, byte[] ip) {
+        long bucket = time - Math.floorMod(time, bucketSeconds);
+        hits.computeIfAbsent(bucket, b -> new long[1])[0]++;
+        ips.computeIfAbsent(bucket, b -> new HashSet<>()).add(ByteBuffer.wrap(ip));
+    }
+
+    /**
+     * @return counts of non-empty buckets ordered by bucket
+     */
+    List<SeriesCount> getCounts() {
+        List<SeriesCount> counts = new ArrayList<>(hits.size());
+        hits.forEach((bucket, count) -> counts.add(new SeriesCount(
+                LocalDateTime.ofEpochSecond(bucket, 0, ZoneOffset.UTC), count[0], ips.get(bucket).size())));
+        return counts;
+    }
+}
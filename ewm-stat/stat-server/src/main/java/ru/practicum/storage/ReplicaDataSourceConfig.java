@@ -0,0 +1,73 @@
+package ru.practicum.storage;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Class configuration of data sources with read replicas
+ * Used only if replicas are set, otherwise Spring Boot creates the only data source
+ */
+@Configuration
+@ConditionalOnProperty(name = "stat-server.replicas.urls")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties, Environment environment,
+                                                             @Value("${stat-server.replicas.urls}") String urls,
+                                                             @Value("${stat-server.replicas.username:}") String username,
+                                                             @Value("${stat-server.replicas.password:}") String password) {
+        HikariDataSource primary = createDataSource(environment, properties.determineUrl(),
+                properties.determineUsername(), properties.determinePassword(), "stat-primary");
+
+        List<String> replicaUrls = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .collect(Collectors.toList());
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            String name = "replica-" + i;
+            replicas.put(name, createDataSource(environment, replicaUrls.get(i),
+                    username.isEmpty() ? properties.determineUsername() : username,
+                    username.isEmpty() ? properties.determinePassword() : password, "stat-" + name));
+        }
+        return new ReplicaRoutingDataSource(primary, replicas);
+    }
+
+    /**
+     * Connection is taken on the first statement,
+     * when read-only flag of transaction is already known
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    private static HikariDataSource createDataSource(Environment environment, String url, String username,
+                                                     String password, String poolName) {
+        HikariDataSource dataSource = new HikariDataSource();
+        // Pool settings of the primary are used for every database
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setPoolName(poolName);
+        return dataSource;
+    }
+}
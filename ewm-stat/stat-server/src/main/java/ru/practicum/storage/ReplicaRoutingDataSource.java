@@ -0,0 +1,124 @@
+package ru.practicum.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Class data source routing read-only transactions to read replicas
+ * and everything else to the primary database.
+ * Replicas are taken in turn among those marked as fresh by the lag monitor,
+ * if there are none or connection to a replica fails, primary is used.
+ * Replica is fresh only until the time set by the last check,
+ * so replicas are not used when checks stop or are late.
+ * Reads whose results outlive the request, like cached statistics, are run on the primary,
+ * otherwise hits committed but not yet replicated would be missing from them after the lag is over.
+ * Should be wrapped with lazy connection proxy, so routing happens after the transaction is started
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    public static final String PRIMARY = "primary";
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = ThreadLocal.withInitial(() -> false);
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final Map<String, Long> freshUntil = new ConcurrentHashMap<>();
+    private final List<String> names;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param primary  data source of primary database
+     * @param replicas data sources of replicas by name
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas) {
+        this.primary = primary;
+        this.replicas = Map.copyOf(replicas);
+        this.names = new ArrayList<>(replicas.keySet());
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Run action with every connection taken from the primary database,
+     * including connections of read-only transactions
+     *
+     * @param action to run
+     * @return result of action
+     */
+    public static <T> T onPrimary(Supplier<T> action) {
+        boolean previous = PRIMARY_ONLY.get();
+        PRIMARY_ONLY.set(true);
+        try {
+            return action.get();
+        } finally {
+            PRIMARY_ONLY.set(previous);
+        }
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public Map<String, DataSource> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Mark replica as fresh until time or stale
+     *
+     * @param name  of replica
+     * @param until time in milliseconds until which replica may serve queries, 0 - stale
+     */
+    public void setFreshUntil(String name, long until) {
+        long now = System.currentTimeMillis();
+        Long previous = freshUntil.put(name, until);
+        boolean wasFresh = previous != null && previous > now;
+        boolean isFresh = until > now;
+        if (previous == null || wasFresh != isFresh) {
+            log.info("Replica {} is {}", name, isFresh ? "used for queries" : "not used for queries");
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || PRIMARY_ONLY.get()) {
+            return PRIMARY;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(Math.floorMod(next.getAndIncrement(), names.size()));
+            if (freshUntil.getOrDefault(name, 0L) > now) {
+                return name;
+            }
+        }
+        return PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        if (PRIMARY.equals(key)) {
+            return primary.getConnection();
+        }
+        try {
+            return replicas.get(key).getConnection();
+        } catch (SQLException e) {
+            log.warn("Failed to connect to replica {}, primary is used", key, e);
+            setFreshUntil((String) key, 0);
+            return primary.getConnection();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.practicum.storage;
+
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.Statistics;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Class repository for time-bucketed rollups of hits:
+ * counts of hits per (app, uri, bucket) for every rollup level
+ */
+@Repository
+public class RollupRepository {
+    static final String TABLE_PREFIX = "stat_rollup_";
+    private static final String POSTGRESQL_UPSERT = "insert into %1$s (uri_id, bucket, app_id, hits) " +
+            "values (:uriId, :bucket, :appId, :hits) " +
+            "on conflict (uri_id, bucket, app_id) do update set hits = %1$s.hits + excluded.hits";
+    private static final String H2_UPSERT = "merge into %1$s as r " +
+            "using (values (cast(:uriId as integer), cast(:bucket as timestamp), " +
+            "cast(:appId as integer), cast(:hits as bigint))) as s(uri_id, bucket, app_id, hits) " +
+            "on r.uri_id = s.uri_id and r.bucket = s.bucket and r.app_id = s.app_id " +
+            "when matched then update set hits = r.hits + s.hits " +
+            "when not matched then insert (uri_id, bucket, app_id, hits) " +
+            "values (s.uri_id, s.bucket, s.app_id, s.hits)";
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparingInt(RollupKey::getUriId)
+            .thenComparing(RollupKey::getBucket)
+            .thenComparingInt(RollupKey::getAppId);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String upsert;
+
+    @Autowired
+    public RollupRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.upsert = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL ? POSTGRESQL_UPSERT : H2_UPSERT;
+    }
+
+    /**
+     * Add hits to rollups of every level
+     * Keys are written in the same order by every transaction to avoid deadlocks
+     *
+     * @param hits to add
+     */
+    public void add(List<Statistics> hits) {
+        for (RollupLevel level : RollupLevel.values()) {
+            Map<RollupKey, Long> counts = new TreeMap<>(KEY_ORDER);
+            for (Statistics hit : hits) {
+                counts.merge(new RollupKey(hit.getAppId(), hit.getUriId(), level.floor(hit.getTimeStamp())), 1L,
+                        Long::sum);
+            }
+
+            MapSqlParameterSource[] batch = counts.entrySet().stream()
+                    .map(entry -> new MapSqlParameterSource()
+                            .addValue("uriId", entry.getKey().getUriId())
+                            .addValue("bucket", Timestamp.valueOf(entry.getKey().getBucket()))
+                            .addValue("appId", entry.getKey().getAppId())
+                            .addValue("hits", entry.getValue()))
+                    .toArray(MapSqlParameterSource[]::new);
+            jdbcTemplate.batchUpdate(String.format(upsert, level.getTable(TABLE_PREFIX)), batch);
+        }
+    }
+
+    /**
+     * Get number of hits per (app, uri)
+     * summing rollup buckets and raw hits of the segments in one query.
+     * Rows are passed to consumer as they are read from cursor
+     *
+     * @param segments of requested range
+     * @param uriIds   list of ids of URIs, null for all URIs
+     * @param consumer of counts ordered by hits
+     */
+    public void getHits(List<RollupSegment> segments, List<Integer> uriIds, Consumer<StatCount> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>(segments.size());
+        String uriFilter = "";
+        if (uriIds != null) {
+            parameters.addValue("uriIds", uriIds);
+            uriFilter = " and uri_id in (:uriIds)";
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            RollupSegment segment = segments.get(i);
+            parameters.addValue("from" + i, Timestamp.valueOf(segment.getFrom()));
+            parameters.addValue("to" + i, Timestamp.valueOf(segment.getTo()));
+            if (segment.getLevel() == null) {
+                parts.add("select app_id, uri_id, count(*) as hits from statistics " +
+                        "where time_stamp >= :from" + i + " and time_stamp < :to" + i + uriFilter +
+                        " group by app_id, uri_id");
+            } else {
+                parts.add("select app_id, uri_id, hits from " + segment.getLevel().getTable(TABLE_PREFIX) +
+                        " where bucket >= :from" + i + " and bucket < :to" + i + uriFilter);
+            }
+        }
+
+        String sql = "select app_id, uri_id, sum(hits) as total from (" +
+                String.join(" union all ", parts) +
+                ") as r group by app_id, uri_id order by total desc";
+        jdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new StatCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("total")));
+        });
+    }
+
+    /**
+     * Read rollup rows of level since time
+     *
+     * @param level    of rollup
+     * @param from     start of the oldest bucket
+     * @param consumer of bucket starts and counts of hits
+     */
+    public void forEachBucket(RollupLevel level, LocalDateTime from, BiConsumer<LocalDateTime, StatCount> consumer) {
+        jdbcTemplate.query("select bucket, app_id, uri_id, hits from " + level.getTable(TABLE_PREFIX) +
+                        " where bucket >= :from",
+                new MapSqlParameterSource("from", Timestamp.valueOf(from)),
+                rs -> {
+                    consumer.accept(rs.getTimestamp("bucket").toLocalDateTime(),
+                            new StatCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+                });
+    }
+
+    /**
+     * Remove buckets of level before time
+     *
+     * @param level  of rollup
+     * @param before start of the oldest bucket to keep
+     * @return number of removed rows
+     */
+    public int prune(RollupLevel level, LocalDateTime before) {
+        return jdbcTemplate.update("delete from " + level.getTable(TABLE_PREFIX) + " where bucket < :before",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)));
+    }
+
+    /**
+     * Class key of rollup row
+     */
+    @Value
+    private static class RollupKey {
+        int appId;
+        int uriId;
+        LocalDateTime bucket;
+    }
+}
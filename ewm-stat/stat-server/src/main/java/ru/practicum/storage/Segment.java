@@ -0,0 +1,357 @@
+package ru.practicum.storage;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Class append-only segment file of hits.
+ * File starts with header (magic, version, creation time in millis),
+ * followed by records of fixed size:
+ * time in epoch seconds (8), app id (4), URI id (4), IP length (1), IP (16), padding (3), CRC32 (4).
+ * Minimal and maximal time of hits is kept for every block of records.
+ * Sealed segment is truncated to its records and has index file with blocks of records,
+ * segment without index file is recovered by reading records up to the first broken one.
+ * One thread appends records, any number of threads read them
+ */
+public class Segment {
+    public static final int RECORD_SIZE = 40;
+    public static final int BLOCK_RECORDS = 1024;
+    private static final int HEADER_SIZE = 16;
+    private static final int CRC_OFFSET = 36;
+    private static final int MAGIC = 0x53544853;
+    private static final int VERSION = 1;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    @Getter
+    private final long id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    @Getter
+    private final long createdAt;
+    private final long[] blockMin;
+    private final long[] blockMax;
+    private final int capacity;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    // Records up to count are written completely, count is published after record and its block
+    @Getter
+    private volatile int count;
+    private volatile long minTime = Long.MAX_VALUE;
+    @Getter
+    private volatile long maxTime = Long.MIN_VALUE;
+    private boolean sealed;
+
+    private Segment(long id, Path path, MappedByteBuffer buffer, long createdAt, int capacity) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.createdAt = createdAt;
+        this.capacity = capacity;
+        int blocks = (capacity + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        this.blockMin = new long[blocks];
+        this.blockMax = new long[blocks];
+    }
+
+    /**
+     * Create new segment file
+     * with space for records preallocated
+     *
+     * @param dir      of segments
+     * @param id       of segment, segments are ordered by id
+     * @param maxBytes max size of segment file
+     * @return created segment
+     */
+    public static Segment create(Path dir, long id, int maxBytes) {
+        Path path = dir.resolve(fileName(id, LOG_SUFFIX));
+        int capacity = (maxBytes - HEADER_SIZE) / RECORD_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            long createdAt = System.currentTimeMillis();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, createdAt);
+            return new Segment(id, path, buffer, createdAt, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Segment " + path + " is not created", e);
+        }
+    }
+
+    /**
+     * Open existing segment file as sealed,
+     * segment without index file is recovered and sealed
+     *
+     * @param path of segment file
+     * @return opened segment
+     */
+    public static Segment open(Path path) {
+        long id = Long.parseLong(path.getFileName().toString().replace(LOG_SUFFIX, ""));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IllegalStateException("Segment " + path + " has no header");
+            }
+            int capacity = (int) ((size - HEADER_SIZE) / RECORD_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("Segment " + path + " has unknown format");
+            }
+            Segment segment = new Segment(id, path, buffer, buffer.getLong(8), capacity);
+            if (!segment.readIndex()) {
+                segment.recover();
+                segment.seal();
+            }
+            segment.sealed = true;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Segment " + path + " is not opened", e);
+        }
+    }
+
+    /**
+     * Append hit to segment
+     *
+     * @param time  of hit in epoch seconds
+     * @param appId of hit
+     * @param uriId of hit
+     * @param ip    of hit, 4 or 16 bytes
+     * @return false if segment is full
+     */
+    public boolean append(long time, int appId, int uriId, byte[] ip) {
+        if (sealed) {
+            throw new IllegalStateException("Segment " + path + " is sealed");
+        }
+        int index = count;
+        if (index == capacity) {
+            return false;
+        }
+
+        record.clear();
+        record.putLong(time).putInt(appId).putInt(uriId).put((byte) ip.length).put(ip);
+        crc.reset();
+        crc.update(record.array(), 0, CRC_OFFSET);
+        record.putInt(CRC_OFFSET, (int) crc.getValue());
+        buffer.duplicate().position(offset(index)).put(record.array());
+
+        addToIndex(index, time);
+        count = index + 1;
+        return true;
+    }
+
+    /**
+     * Flush written records to disk
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Seal segment, file is truncated to its records
+     * and index of blocks is written
+     */
+    public void seal() {
+        buffer.force();
+        int records = count;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(offset(records));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Segment " + path + " is not sealed", e);
+        }
+        writeIndex(records);
+        sealed = true;
+    }
+
+    /**
+     * Delete files of segment
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(indexPath());
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Segment " + path + " is not deleted", e);
+        }
+    }
+
+    /**
+     * Check if segment may contain hits of period
+     *
+     * @param from start of period in epoch seconds
+     * @param to   end of period in epoch seconds, inclusive
+     * @return true if segment has hits in range of period
+     */
+    public boolean overlaps(long from, long to) {
+        return count > 0 && minTime <= to && maxTime >= from;
+    }
+
+    /**
+     * Read hits of period
+     * skipping blocks out of the period
+     *
+     * @param from     start of period in epoch seconds
+     * @param to       end of period in epoch seconds, inclusive
+     * @param consumer of record indexes
+     */
+    public void scan(long from, long to, RecordConsumer consumer) {
+        int records = count;
+        for (int block = 0; block * BLOCK_RECORDS < records; block++) {
+            if (blockMin[block] > to || blockMax[block] < from) {
+                continue;
+            }
+            int last = Math.min(records, (block + 1) * BLOCK_RECORDS);
+            for (int index = block * BLOCK_RECORDS; index < last; index++) {
+                long time = buffer.getLong(offset(index));
+                if (time >= from && time <= to) {
+                    consumer.accept(this, index);
+                }
+            }
+        }
+    }
+
+    public long getTime(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    public int getAppId(int index) {
+        return buffer.getInt(offset(index) + 8);
+    }
+
+    public int getUriId(int index) {
+        return buffer.getInt(offset(index) + 12);
+    }
+
+    public byte[] getIp(int index) {
+        int offset = offset(index);
+        byte[] ip = new byte[buffer.get(offset + 16)];
+        buffer.duplicate().position(offset + 17).get(ip);
+        return ip;
+    }
+
+    public boolean isFull() {
+        return count == capacity;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public static boolean isSegmentFile(Path path) {
+        return path.getFileName().toString().endsWith(LOG_SUFFIX);
+    }
+
+    private void recover() {
+        byte[] bytes = new byte[RECORD_SIZE];
+        int index = 0;
+        for (; index < capacity; index++) {
+            buffer.duplicate().position(offset(index)).get(bytes);
+            crc.reset();
+            crc.update(bytes, 0, CRC_OFFSET);
+            ByteBuffer read = ByteBuffer.wrap(bytes);
+            // Preallocated space is zeros, so the first broken record is the end of written records
+            if (read.getInt(CRC_OFFSET) != (int) crc.getValue()) {
+                break;
+            }
+            addToIndex(index, read.getLong(0));
+        }
+        count = index;
+    }
+
+    private boolean readIndex() {
+        Path indexPath = indexPath();
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try {
+            ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            if (index.remaining() < 12) {
+                return false;
+            }
+            crc.reset();
+            crc.update(index.array(), 0, index.remaining() - 4);
+            if (index.getInt(index.remaining() - 4) != (int) crc.getValue() || index.getInt() != MAGIC) {
+                return false;
+            }
+            int records = index.getInt();
+            if (records > capacity) {
+                return false;
+            }
+            for (int block = 0; block * BLOCK_RECORDS < records; block++) {
+                blockMin[block] = index.getLong();
+                blockMax[block] = index.getLong();
+                minTime = Math.min(minTime, blockMin[block]);
+                maxTime = Math.max(maxTime, blockMax[block]);
+            }
+            count = records;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Broken index is rebuilt from records
+            return false;
+        }
+    }
+
+    private void writeIndex(int records) {
+        int blocks = (records + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        ByteBuffer index = ByteBuffer.allocate(12 + blocks * 16);
+        index.putInt(MAGIC).putInt(records);
+        for (int block = 0; block < blocks; block++) {
+            index.putLong(blockMin[block]).putLong(blockMax[block]);
+        }
+        crc.reset();
+        crc.update(index.array(), 0, index.position());
+        index.putInt((int) crc.getValue());
+        try {
+            Path tmp = path.resolveSibling(fileName(id, INDEX_SUFFIX + ".tmp"));
+            Files.write(tmp, index.array());
+            Files.move(tmp, indexPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Index of segment " + path + " is not written", e);
+        }
+    }
+
+    private void addToIndex(int index, long time) {
+        int block = index / BLOCK_RECORDS;
+        if (index % BLOCK_RECORDS == 0) {
+            blockMin[block] = time;
+            blockMax[block] = time;
+        } else {
+            blockMin[block] = Math.min(blockMin[block], time);
+            blockMax[block] = Math.max(blockMax[block], time);
+        }
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+    }
+
+    private Path indexPath() {
+        return path.resolveSibling(fileName(id, INDEX_SUFFIX));
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private static String fileName(long id, String suffix) {
+        return String.format("%020d%s", id, suffix);
+    }
+
+    /**
+     * Consumer of records found by scan
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(Segment segment, int index);
+    }
+}
@@ -0,0 +1,329 @@
+package ru.practicum.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.SeriesCount;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.StatKey;
+import ru.practicum.model.Statistics;
+import ru.practicum.sketch.HyperLogLog;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Class store of raw hits in append-only segment files,
+ * used instead of statistics table with stat-server.storage=segment.
+ * Segments are rolled by size and by age,
+ * queries read only segments and blocks overlapping requested period
+ */
+@Slf4j
+@Repository
+public class SegmentHitStore {
+    private final boolean enabled;
+    private final Path dir;
+    private final int maxBytes;
+    private final long rollMillis;
+    private final boolean fsync;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private volatile Segment active;
+    // Group commit: hits are counted as appended, the first waiting caller forces all of them
+    private final Object forceLock = new Object();
+    private volatile long appended;
+    private volatile long forced;
+
+    @Autowired
+    public SegmentHitStore(@Value("${stat-server.storage:jdbc}") String storage,
+                           @Value("${stat-server.segment.dir:segments}") String dir,
+                           @Value("${stat-server.segment.max-bytes:67108864}") int maxBytes,
+                           @Value("${stat-server.segment.roll-ms:3600000}") long rollMillis,
+                           @Value("${stat-server.segment.fsync:true}") boolean fsync) {
+        this.enabled = "segment".equals(storage);
+        this.dir = Paths.get(dir);
+        this.maxBytes = maxBytes;
+        this.rollMillis = rollMillis;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Open segments left by previous run,
+     * segments which were not sealed are recovered
+     */
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+
+        long nextId = 0;
+        try {
+            Files.createDirectories(dir);
+            List<Path> paths;
+            try (Stream<Path> files = Files.list(dir)) {
+                paths = files.filter(Segment::isSegmentFile).sorted().collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                Segment segment = Segment.open(path);
+                segments.add(segment);
+                nextId = segment.getId() + 1;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Segments are not opened in " + dir, e);
+        }
+        active = Segment.create(dir, nextId, maxBytes);
+        segments.add(active);
+        log.info("Opened {} segments of hits in {}", segments.size() - 1, dir.toAbsolutePath());
+    }
+
+    /**
+     * Seal active segment
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (active == null) {
+            return;
+        }
+        seal(active);
+        active = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Append hits to active segment,
+     * hits are flushed to disk before return if fsync is on.
+     * Segment is forced out of append lock, one force covers hits of every caller appended before it
+     *
+     * @param hits to append
+     */
+    public void append(List<Statistics> hits) {
+        long target;
+        synchronized (this) {
+            if (active == null) {
+                throw new IllegalStateException("Segment store is closed");
+            }
+
+            for (Statistics hit : hits) {
+                long time = hit.getTimeStamp().toEpochSecond(ZoneOffset.UTC);
+                if (active.isFull() || (active.getCount() > 0
+                        && System.currentTimeMillis() - active.getCreatedAt() >= rollMillis)) {
+                    roll();
+                }
+                active.append(time, hit.getAppId(), hit.getUriId(), hit.getIp());
+            }
+            target = appended + hits.size();
+            appended = target;
+        }
+        if (fsync) {
+            force(target);
+        }
+    }
+
+    /**
+     * Count hits of period grouped by app and URI
+     *
+     * @param start       of period
+     * @param end         of period, inclusive
+     * @param uriIds      ids of URIs, null - all URIs
+     * @param unique      count only unique IPs
+     * @param approximate count unique IPs with HyperLogLog sketches
+     * @param consumer    of counts sorted by number of hits
+     */
+    public void getHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, boolean unique,
+                        boolean approximate, Consumer<StatCount> consumer) {
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC);
+        Set<Integer> uriFilter = uriIds == null ? null : new HashSet<>(uriIds);
+
+        Map<StatKey, long[]> hits = new HashMap<>();
+        Map<StatKey, Set<ByteBuffer>> ips = new HashMap<>();
+        Map<StatKey, HyperLogLog> sketches = new HashMap<>();
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            segment.scan(from, to, (s, index) -> {
+                int uriId = s.getUriId(index);
+                if (uriFilter != null && !uriFilter.contains(uriId)) {
+                    return;
+                }
+                StatKey key = new StatKey(s.getAppId(index), uriId);
+                if (!unique) {
+                    hits.computeIfAbsent(key, k -> new long[1])[0]++;
+                } else if (approximate) {
+                    sketches.computeIfAbsent(key, k -> new HyperLogLog()).add(s.getIp(index));
+                } else {
+                    ips.computeIfAbsent(key, k -> new HashSet<>()).add(ByteBuffer.wrap(s.getIp(index)));
+                }
+            });
+        }
+
+        List<StatCount> counts = new ArrayList<>();
+        hits.forEach((key, count) -> counts.add(new StatCount(key.getAppId(), key.getUriId(), count[0])));
+        ips.forEach((key, set) -> counts.add(new StatCount(key.getAppId(), key.getUriId(), set.size())));
+        sketches.forEach((key, sketch) -> counts.add(new StatCount(key.getAppId(), key.getUriId(),
+                sketch.cardinality())));
+        counts.sort(Comparator.comparingLong(StatCount::getHits).reversed());
+        counts.forEach(consumer);
+    }
+
+    /**
+     * Get sketches of unique IPs per (app, uri) of period
+     *
+     * @param start  of period
+     * @param end    of period, inclusive
+     * @param uriIds ids of URIs, null - all URIs
+     * @return sketches by (app, uri)
+     */
+    public Map<StatKey, HyperLogLog> getSketches(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC);
+        Set<Integer> uriFilter = uriIds == null ? null : new HashSet<>(uriIds);
+
+        Map<StatKey, HyperLogLog> sketches = new HashMap<>();
+        for (Segment segment : segments) {
+            if (!segment.overlaps(from, to)) {
+                continue;
+            }
+            segment.scan(from, to, (s, index) -> {
+                int uriId = s.getUriId(index);
+                if (uriFilter == null || uriFilter.contains(uriId)) {
+                    sketches.computeIfAbsent(new StatKey(s.getAppId(index), uriId), k -> new HyperLogLog())
+                            .add(s.getIp(index));
+                }
+            });
+        }
+        return sketches;
+    }
+
+    /**
+     * Get counts of hits and exact unique IPs of URI
+     * per time bucket of period
+     *
+     * @param level of buckets, buckets should have fixed length
+     * @param uriId id of URI
+     * @param from  start of the first bucket
+     * @param to    end of the last bucket, exclusive
+     * @return counts of non-empty buckets ordered by bucket
+     */
+    public List<SeriesCount> getSeries(RollupLevel level, int uriId, LocalDateTime from, LocalDateTime to) {
+        long start = from.toEpochSecond(ZoneOffset.UTC);
+        long end = to.toEpochSecond(ZoneOffset.UTC) - 1;
+        RawSeriesCounter counter = new RawSeriesCounter(level);
+        for (Segment segment : segments) {
+            if (!segment.overlaps(start, end)) {
+                continue;
+            }
+            segment.scan(start, end, (s, index) -> {
+                if (s.getUriId(index) == uriId) {
+                    counter.add(s.getTime(index), s.getIp(index));
+                }
+            });
+        }
+        return counter.getCounts();
+    }
+
+    /**
+     * Read hits since time
+     *
+     * @param from     time of the oldest hit
+     * @param consumer of hits
+     */
+    public void forEachSince(LocalDateTime from, Consumer<Statistics> consumer) {
+        long time = from.toEpochSecond(ZoneOffset.UTC);
+        for (Segment segment : segments) {
+            if (!segment.overlaps(time, Long.MAX_VALUE)) {
+                continue;
+            }
+            segment.scan(time, Long.MAX_VALUE, (s, index) -> consumer.accept(Statistics.builder()
+                    .appId(s.getAppId(index))
+                    .uriId(s.getUriId(index))
+                    .ip(s.getIp(index))
+                    .timeStamp(LocalDateTime.ofEpochSecond(s.getTime(index), 0, ZoneOffset.UTC))
+                    .build()));
+        }
+    }
+
+    /**
+     * Delete sealed segments with all hits older than time
+     *
+     * @param before time of the oldest kept hit
+     * @return number of deleted segments
+     */
+    public synchronized int deleteOlderThan(LocalDateTime before) {
+        long time = before.toEpochSecond(ZoneOffset.UTC);
+        int deleted = 0;
+        for (Segment segment : segments) {
+            // Running queries keep reading mapped records of deleted files
+            if (segment != active && segment.getMaxTime() < time) {
+                segments.remove(segment);
+                segment.delete();
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private void force(long target) {
+        if (forced >= target) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forced >= target) {
+                return;
+            }
+            // Hits counted before active segment is read are in it or in sealed segments, which are forced
+            long covered = appended;
+            Segment segment = active;
+            if (segment != null && !segment.isSealed()) {
+                segment.force();
+            }
+            forced = covered;
+        }
+    }
+
+    private void roll() {
+        seal(active);
+        active = Segment.create(dir, active.getId() + 1, maxBytes);
+        segments.add(active);
+    }
+
+    private void seal(Segment segment) {
+        if (segment.getCount() == 0) {
+            // Empty segment is not kept, its id is reused by the next run
+            segments.remove(segment);
+            segment.delete();
+            return;
+        }
+        // Sealed segment is forced and truncated, it is not forced by appending callers any more
+        synchronized (forceLock) {
+            segment.seal();
+        }
+        log.info("Sealed segment {} with {} hits", segment.getId(), segment.getCount());
+    }
+}
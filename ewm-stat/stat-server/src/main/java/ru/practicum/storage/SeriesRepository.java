@@ -0,0 +1,105 @@
+package ru.practicum.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.SeriesCount;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.sketch.IpBitmap;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class repository for counts of hits and unique IPs of URI per time bucket.
+ * Hour and day buckets are read from rollups and unique IP sets of the same buckets,
+ * minute buckets have no sets of unique IPs and are counted from raw hits
+ */
+@Repository
+public class SeriesRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final BitmapRepository bitmapRepository;
+
+    @Autowired
+    public SeriesRepository(NamedParameterJdbcTemplate jdbcTemplate, BitmapRepository bitmapRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.bitmapRepository = bitmapRepository;
+    }
+
+    /**
+     * Get counts of hits and unique IPs of URI per time bucket of period
+     * Unique IPs of hour buckets, and of day buckets without bitmaps,
+     * are estimated by HyperLogLog sketches, others are exact
+     *
+     * @param level       of buckets: day, hour or minute
+     * @param uriId       id of URI
+     * @param from        start of the first bucket
+     * @param to          end of the last bucket, exclusive
+     * @param bitmapsFrom time since which bitmaps of days are built, null for all days
+     * @return counts of non-empty buckets ordered by bucket
+     */
+    public List<SeriesCount> getSeries(RollupLevel level, int uriId, LocalDateTime from, LocalDateTime to,
+                                       LocalDateTime bitmapsFrom) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("uriId", uriId)
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+
+        if (level == RollupLevel.MINUTE) {
+            RawSeriesCounter counter = new RawSeriesCounter(level);
+            jdbcTemplate.query("select time_stamp, ip from statistics " +
+                    "where uri_id = :uriId and time_stamp >= :from and time_stamp < :to", parameters, rs -> {
+                        counter.add(rs.getTimestamp("time_stamp").toLocalDateTime().toEpochSecond(ZoneOffset.UTC),
+                                rs.getBytes("ip"));
+                    });
+            return counter.getCounts();
+        }
+
+        // Days written before bitmaps were enabled are estimated until their bitmaps are built
+        boolean bitmaps = level == RollupLevel.DAY && bitmapRepository.isEnabled()
+                && (bitmapsFrom == null || !from.isBefore(bitmapsFrom));
+        Map<LocalDateTime, long[]> hits = new TreeMap<>();
+        jdbcTemplate.query("select bucket, hits from " + level.getTable(RollupRepository.TABLE_PREFIX) +
+                " where uri_id = :uriId and bucket >= :from and bucket < :to", parameters, rs -> {
+                    hits.computeIfAbsent(rs.getTimestamp("bucket").toLocalDateTime(), b -> new long[1])[0]
+                            += rs.getLong("hits");
+                });
+
+        // Rows of every app of the bucket are merged, pending sets are read before sets of level
+        Map<LocalDateTime, HyperLogLog> sketches = new TreeMap<>();
+        Map<LocalDateTime, IpBitmap> ips = new TreeMap<>();
+        // Pending sketches are of hours, they are added to buckets of level
+        List<String> tables = bitmaps
+                ? List.of(BitmapRepository.PENDING_TABLE, BitmapRepository.TABLE)
+                : List.of(SketchRepository.PENDING_TABLE, level.getTable(SketchRepository.TABLE_PREFIX));
+        for (String table : tables) {
+            jdbcTemplate.query("select bucket, " + (bitmaps ? "bitmap" : "sketch") + " as ips from " + table +
+                    " where uri_id = :uriId and bucket >= :from and bucket < :to", parameters, rs -> {
+                        LocalDateTime bucket = level.floor(rs.getTimestamp("bucket").toLocalDateTime());
+                        byte[] set = rs.getBytes("ips");
+                        if (bitmaps) {
+                            ips.computeIfAbsent(bucket, b -> new IpBitmap()).merge(IpBitmap.fromBytes(set));
+                        } else {
+                            sketches.computeIfAbsent(bucket, b -> new HyperLogLog())
+                                    .merge(HyperLogLog.fromBytes(set));
+                        }
+                    });
+        }
+
+        List<SeriesCount> counts = new ArrayList<>(hits.size());
+        hits.forEach((bucket, count) -> {
+            long unique = bitmaps
+                    ? (ips.containsKey(bucket) ? ips.get(bucket).cardinality() : 0)
+                    : (sketches.containsKey(bucket) ? sketches.get(bucket).cardinality() : 0);
+            counts.add(new SeriesCount(bucket, count[0], unique));
+        });
+        return counts;
+    }
+}
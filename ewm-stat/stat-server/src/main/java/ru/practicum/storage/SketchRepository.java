@@ -0,0 +1,205 @@
+package ru.practicum.storage;
+
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+import ru.practicum.model.StatKey;
+import ru.practicum.model.Statistics;
+import ru.practicum.sketch.HyperLogLog;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class repository for HyperLogLog sketches of unique IPs
+ * per (app, uri, bucket) for month, day and hour levels.
+ * Writes only insert sketches of hours of their hits to pending table,
+ * pending sketches are merged into sketches of every level in chunks by a background job.
+ * Queries read pending sketches before sketches of levels,
+ * so sketches merged in between are counted twice, which does not change estimates
+ */
+@Repository
+public class SketchRepository {
+    public static final RollupLevel[] LEVELS = {RollupLevel.MONTH, RollupLevel.DAY, RollupLevel.HOUR};
+
+    static final String TABLE_PREFIX = "stat_hll_";
+    static final String PENDING_TABLE = "stat_hll_pending";
+    private static final String PENDING_INSERT = "insert into " + PENDING_TABLE +
+            " (uri_id, bucket, app_id, sketch) values (:uriId, :bucket, :appId, :sketch)";
+    private static final String POSTGRESQL_INSERT = "insert into %s (uri_id, bucket, app_id, sketch) " +
+            "values (:uriId, :bucket, :appId, :sketch) on conflict (uri_id, bucket, app_id) do nothing";
+    private static final String H2_INSERT = "merge into %s as r " +
+            "using (values (cast(:uriId as integer), cast(:bucket as timestamp), " +
+            "cast(:appId as integer), cast(:sketch as bytea))) as s(uri_id, bucket, app_id, sketch) " +
+            "on r.uri_id = s.uri_id and r.bucket = s.bucket and r.app_id = s.app_id " +
+            "when not matched then insert (uri_id, bucket, app_id, sketch) " +
+            "values (s.uri_id, s.bucket, s.app_id, s.sketch)";
+    private static final String SELECT_FOR_UPDATE = "select sketch from %s " +
+            "where uri_id = :uriId and bucket = :bucket and app_id = :appId for update";
+    private static final String UPDATE = "update %s set sketch = :sketch " +
+            "where uri_id = :uriId and bucket = :bucket and app_id = :appId";
+    private static final Comparator<SketchKey> KEY_ORDER = Comparator.comparingInt(SketchKey::getUriId)
+            .thenComparing(SketchKey::getBucket)
+            .thenComparingInt(SketchKey::getAppId);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String insert;
+
+    @Autowired
+    public SketchRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.insert = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL ? POSTGRESQL_INSERT : H2_INSERT;
+    }
+
+    /**
+     * Add IPs of hits to pending sketches of hours
+     * in one batch without locking sketches of levels
+     *
+     * @param hits to add
+     */
+    public void add(List<Statistics> hits) {
+        Map<SketchKey, HyperLogLog> sketches = new TreeMap<>(KEY_ORDER);
+        for (Statistics hit : hits) {
+            sketches.computeIfAbsent(new SketchKey(hit.getAppId(), hit.getUriId(),
+                    RollupLevel.HOUR.floor(hit.getTimeStamp())), key -> new HyperLogLog()).add(hit.getIp());
+        }
+        jdbcTemplate.batchUpdate(PENDING_INSERT, sketches.entrySet().stream()
+                .map(entry -> toParameters(entry.getKey(), entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new));
+    }
+
+    /**
+     * Merge the oldest pending sketches into sketches of every level
+     * New buckets are inserted in one batch,
+     * existing ones are locked, merged and updated only if registers changed.
+     * Should be called in write transaction
+     *
+     * @param limit of pending sketches
+     * @return number of merged pending sketches
+     */
+    public int mergePending(int limit) {
+        Map<SketchKey, HyperLogLog> pending = new HashMap<>();
+        List<Long> ids = new ArrayList<>();
+        jdbcTemplate.query("select id, uri_id, bucket, app_id, sketch from " + PENDING_TABLE +
+                        " order by id limit :limit", new MapSqlParameterSource("limit", limit), rs -> {
+                    ids.add(rs.getLong("id"));
+                    pending.computeIfAbsent(new SketchKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                    rs.getTimestamp("bucket").toLocalDateTime()), key -> new HyperLogLog())
+                            .merge(HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                });
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        for (RollupLevel level : LEVELS) {
+            String table = level.getTable(TABLE_PREFIX);
+            Map<SketchKey, HyperLogLog> sketches = new TreeMap<>(KEY_ORDER);
+            pending.forEach((key, sketch) -> sketches.computeIfAbsent(new SketchKey(key.getAppId(), key.getUriId(),
+                    level.floor(key.getBucket())), k -> new HyperLogLog()).merge(sketch));
+
+            List<SketchKey> keys = new ArrayList<>(sketches.keySet());
+            MapSqlParameterSource[] batch = keys.stream()
+                    .map(key -> toParameters(key, sketches.get(key)))
+                    .toArray(MapSqlParameterSource[]::new);
+            int[] inserted = jdbcTemplate.batchUpdate(String.format(insert, table), batch);
+
+            for (int i = 0; i < keys.size(); i++) {
+                if (inserted[i] != 1) {
+                    merge(table, keys.get(i), sketches.get(keys.get(i)));
+                }
+            }
+        }
+        // Pending sketches are removed by ids, sketches with lower ids may be committed after they were read
+        jdbcTemplate.update("delete from " + PENDING_TABLE + " where id in (:ids)",
+                new MapSqlParameterSource("ids", ids));
+        return ids.size();
+    }
+
+    /**
+     * Get merged sketches of unique IPs per (app, uri)
+     * from sketch buckets and raw hits of the segments
+     *
+     * @param segments of requested range
+     * @param uriIds   list of ids of URIs, null for all URIs
+     * @return sketches by (app, uri)
+     */
+    public Map<StatKey, HyperLogLog> getSketches(List<RollupSegment> segments, List<Integer> uriIds) {
+        Map<StatKey, HyperLogLog> result = new HashMap<>();
+        String uriFilter = uriIds != null ? " and uri_id in (:uriIds)" : "";
+
+        for (RollupSegment segment : segments) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource()
+                    .addValue("from", Timestamp.valueOf(segment.getFrom()))
+                    .addValue("to", Timestamp.valueOf(segment.getTo()))
+                    .addValue("uriIds", uriIds);
+            if (segment.getLevel() == null) {
+                jdbcTemplate.query("select distinct app_id, uri_id, ip from statistics " +
+                        "where time_stamp >= :from and time_stamp < :to" + uriFilter, parameters, rs -> {
+                            result.computeIfAbsent(new StatKey(rs.getInt("app_id"), rs.getInt("uri_id")),
+                                    key -> new HyperLogLog()).add(rs.getBytes("ip"));
+                        });
+            } else {
+                // Pending sketches of hours first, sketches merged meanwhile are read from sketches of level
+                for (String table : List.of(PENDING_TABLE, segment.getLevel().getTable(TABLE_PREFIX))) {
+                    jdbcTemplate.query("select app_id, uri_id, sketch from " + table +
+                            " where bucket >= :from and bucket < :to" + uriFilter, parameters, rs -> {
+                                result.computeIfAbsent(new StatKey(rs.getInt("app_id"), rs.getInt("uri_id")),
+                                        key -> new HyperLogLog()).merge(HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                            });
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove sketches of level before time
+     *
+     * @param level  of sketches
+     * @param before start of the oldest bucket to keep
+     * @return number of removed rows
+     */
+    public int prune(RollupLevel level, LocalDateTime before) {
+        return jdbcTemplate.update("delete from " + level.getTable(TABLE_PREFIX) + " where bucket < :before",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)));
+    }
+
+    private void merge(String table, SketchKey key, HyperLogLog sketch) {
+        MapSqlParameterSource parameters = toParameters(key, sketch);
+        byte[] stored = jdbcTemplate.queryForObject(String.format(SELECT_FOR_UPDATE, table), parameters, byte[].class);
+        HyperLogLog merged = HyperLogLog.fromBytes(stored);
+        if (merged.merge(sketch)) {
+            parameters.addValue("sketch", merged.toBytes());
+            jdbcTemplate.update(String.format(UPDATE, table), parameters);
+        }
+    }
+
+    private static MapSqlParameterSource toParameters(SketchKey key, HyperLogLog sketch) {
+        return new MapSqlParameterSource()
+                .addValue("uriId", key.getUriId())
+                .addValue("bucket", Timestamp.valueOf(key.getBucket()))
+                .addValue("appId", key.getAppId())
+                .addValue("sketch", sketch.toBytes());
+    }
+
+    /**
+     * Class key of sketch row
+     */
+    @Value
+    private static class SketchKey {
+        int appId;
+        int uriId;
+        LocalDateTime bucket;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.practicum.storage;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+
+/**
+ * Enum of supported databases
+ * for statements which differ between them
+ */
+public enum SqlDialect {
+    POSTGRESQL,
+    H2;
+
+    /**
+     * Detect dialect by database product name
+     *
+     * @param dataSource to check
+     * @return dialect of the database
+     */
+    public static SqlDialect of(DataSource dataSource) {
+        try {
+            String productName = JdbcUtils.extractDatabaseMetaData(dataSource,
+                    metaData -> metaData.getDatabaseProductName());
+            return "PostgreSQL".equalsIgnoreCase(productName) ? POSTGRESQL : H2;
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Cannot detect database of statistics.", e);
+        }
+    }
+}
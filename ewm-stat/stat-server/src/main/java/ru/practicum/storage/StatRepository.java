@@ -2,42 +2,35 @@ package ru.practicum.storage;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import ru.practicum.ViewStatsDto;
+import org.springframework.data.jpa.repository.QueryHints;
+import ru.practicum.model.StatCount;
 import ru.practicum.model.Statistics;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface StatRepository extends JpaRepository<Statistics, Integer> {
 
-    @Query("select new ru.practicum.ViewStatsDto(s.app, s.uri, count(distinct s.ip)) " +
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select new ru.practicum.model.StatCount(s.appId, s.uriId, count(distinct s.ip)) " +
             "from Statistics as s " +
-            "where s.timeStamp between ?1 and ?2 and s.uri in ?3 " +
-            "group by s.app, s.uri " +
+            "where s.timeStamp between ?1 and ?2 and s.uriId in ?3 " +
+            "group by s.appId, s.uriId " +
             "order by count(distinct s.ip) desc")
-    List<ViewStatsDto> getAllWithUniqueIp(LocalDateTime start, LocalDateTime end, List<String> uris);
-
-    @Query("select new ru.practicum.ViewStatsDto(s.app, s.uri, count(s.ip)) " +
-            "from Statistics as s " +
-            "where s.timeStamp between ?1 and ?2 and s.uri in ?3 " +
-            "group by s.app, s.uri " +
-            "order by count(s.ip) desc")
-    List<ViewStatsDto> getAllWithAllIp(LocalDateTime start, LocalDateTime end, List<String> uris);
+    Stream<StatCount> getAllWithUniqueIp(LocalDateTime start, LocalDateTime end, List<Integer> uriIds);
 
 
-    @Query("select new ru.practicum.ViewStatsDto(s.app, s.uri, count(distinct s.ip)) " +
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select new ru.practicum.model.StatCount(s.appId, s.uriId, count(distinct s.ip)) " +
             "from Statistics as s " +
             "where s.timeStamp between ?1 and ?2 " +
-            "group by s.app, s.uri " +
+            "group by s.appId, s.uriId " +
             "order by count(distinct s.ip) desc")
-    List<ViewStatsDto> getAllWithUniqueIpAndWithoutUris(LocalDateTime start, LocalDateTime end);
-
-    @Query("select new ru.practicum.ViewStatsDto(s.app, s.uri, count(s.ip)) " +
-            "from Statistics as s " +
-            "where s.timeStamp between ?1 and ?2 " +
-            "group by s.app, s.uri " +
-            "order by count(s.ip) desc")
-    List<ViewStatsDto> getAllWithAllIpAndWithoutUris(LocalDateTime start, LocalDateTime end);
+    Stream<StatCount> getAllWithUniqueIpAndWithoutUris(LocalDateTime start, LocalDateTime end);
 
 
 }
@@ -0,0 +1,81 @@
+package ru.practicum.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Class repository for named watermarks of background jobs
+ */
+@Repository
+public class WatermarkRepository {
+    public static final String COMPACTION = "compaction";
+    public static final String HEARTBEAT = "heartbeat";
+    public static final String BITMAP = "bitmap";
+    public static final String RETENTION = "retention";
+    public static final String ROLLUP_MINUTE = "rollup_minute";
+    public static final String ROLLUP_HOUR = "rollup_hour";
+
+    private static final String SELECT = "select watermark from stat_watermark where name = :name";
+    private static final String POSTGRESQL_UPSERT = "insert into stat_watermark (name, watermark) " +
+            "values (:name, :watermark) on conflict (name) do update set watermark = excluded.watermark";
+    private static final String H2_UPSERT = "merge into stat_watermark as w " +
+            "using (values (cast(:name as varchar(64)), cast(:watermark as timestamp))) as s(name, watermark) " +
+            "on w.name = s.name " +
+            "when matched then update set watermark = s.watermark " +
+            "when not matched then insert (name, watermark) values (s.name, s.watermark)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String upsert;
+
+    @Autowired
+    public WatermarkRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.upsert = SqlDialect.of(dataSource) == SqlDialect.POSTGRESQL ? POSTGRESQL_UPSERT : H2_UPSERT;
+    }
+
+    /**
+     * Get watermark by name
+     *
+     * @param name of watermark
+     * @return watermark or null if it was never set
+     */
+    public LocalDateTime get(String name) {
+        return get(jdbcTemplate, name);
+    }
+
+    /**
+     * Get watermark by name from the given database
+     *
+     * @param dataSource of database, e.g. read replica
+     * @param name       of watermark
+     * @return watermark or null if it was never set
+     */
+    public LocalDateTime get(DataSource dataSource, String name) {
+        return get(new NamedParameterJdbcTemplate(dataSource), name);
+    }
+
+    /**
+     * Set watermark by name
+     *
+     * @param name      of watermark
+     * @param watermark to set
+     */
+    public void set(String name, LocalDateTime watermark) {
+        jdbcTemplate.update(upsert, new MapSqlParameterSource()
+                .addValue("name", name)
+                .addValue("watermark", Timestamp.valueOf(watermark)));
+    }
+
+    private static LocalDateTime get(NamedParameterJdbcTemplate jdbcTemplate, String name) {
+        List<Timestamp> watermarks = jdbcTemplate.queryForList(SELECT,
+                new MapSqlParameterSource("name", name), Timestamp.class);
+        return watermarks.isEmpty() ? null : watermarks.get(0).toLocalDateTime();
+    }
+}
@@ -1,9 +1,13 @@
 package ru.practicum.util;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import ru.practicum.util.exception.CursorExpiredException;
+import ru.practicum.util.exception.IngestOverloadedException;
 
 import javax.validation.ValidationException;
 import java.time.LocalDateTime;
@@ -16,14 +20,50 @@ import static ru.practicum.util.Util.FORMATTER;
 @RestControllerAdvice
 public class ErrorHandler {
 
+    /**
+     * Content type is set explicitly,
+     * so error is written as JSON for NDJSON requests too
+     */
     @ExceptionHandler
-    @ResponseStatus(code = HttpStatus.BAD_REQUEST)
-    public ApiError handleWrongRequestException(final ValidationException e) {
-        return ApiError.builder()
-                .status("BAD_REQUEST")
-                .reason("Incorrectly made request.")
-                .message(e.getMessage())
-                .timeStamp((LocalDateTime.now().format(FORMATTER)))
-                .build();
+    public ResponseEntity<ApiError> handleWrongRequestException(final ValidationException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(ApiError.builder()
+                        .status("BAD_REQUEST")
+                        .reason("Incorrectly made request.")
+                        .message(e.getMessage())
+                        .timeStamp((LocalDateTime.now().format(FORMATTER)))
+                        .build());
+    }
+
+    /**
+     * Client should retry hits after Retry-After seconds
+     */
+    @ExceptionHandler
+    public ResponseEntity<ApiError> handleIngestOverloadedException(final IngestOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(ApiError.builder()
+                        .status("TOO_MANY_REQUESTS")
+                        .reason("Hits are not accepted now.")
+                        .message(e.getMessage())
+                        .timeStamp((LocalDateTime.now().format(FORMATTER)))
+                        .build());
+    }
+
+    /**
+     * Client should load full statistics and request changes since new cursor
+     */
+    @ExceptionHandler
+    public ResponseEntity<ApiError> handleCursorExpiredException(final CursorExpiredException e) {
+        return ResponseEntity.status(HttpStatus.GONE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(ApiError.builder()
+                        .status("GONE")
+                        .reason("Cursor is expired.")
+                        .message(e.getMessage())
+                        .timeStamp((LocalDateTime.now().format(FORMATTER)))
+                        .build());
     }
 }
@@ -0,0 +1,127 @@
+package ru.practicum.util;
+
+import javax.validation.ValidationException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Util class to store IP addresses in compact binary form:
+ * 4 bytes for IPv4 and 16 bytes for IPv6
+ */
+public class IpConverter {
+
+    /**
+     * Transform IP address to bytes
+     * Host names are not resolved
+     *
+     * @param ip IPv4 or IPv6 address
+     * @return bytes of address
+     */
+    public static byte[] toBytes(String ip) {
+        if (ip == null || ip.isBlank()) {
+            throw new ValidationException("IP address should not be blank.");
+        }
+        return ip.indexOf(':') < 0 ? parseIpv4(ip, ip) : parseIpv6(ip);
+    }
+
+    /**
+     * Transform bytes to IP address
+     *
+     * @param bytes of address
+     * @return IPv4 or IPv6 address
+     */
+    public static String toString(byte[] bytes) {
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Wrong length of IP address: " + bytes.length);
+        }
+    }
+
+    private static byte[] parseIpv4(String address, String ip) {
+        String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new ValidationException("Wrong IP address=" + ip);
+        }
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            String part = parts[i];
+            if (part.isEmpty() || part.length() > 3 || !part.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                throw new ValidationException("Wrong IP address=" + ip);
+            }
+            int value = Integer.parseInt(part);
+            if (value > 255) {
+                throw new ValidationException("Wrong IP address=" + ip);
+            }
+            bytes[i] = (byte) value;
+        }
+        return bytes;
+    }
+
+    /**
+     * Parse IPv6 address of eight hex groups, at most one "::" replaces zero groups,
+     * the last two groups may be written as IPv4 address.
+     * IPv4-mapped addresses are stored as IPv4
+     */
+    private static byte[] parseIpv6(String ip) {
+        int gap = ip.indexOf("::");
+        if (gap >= 0 && ip.indexOf("::", gap + 1) >= 0) {
+            throw new ValidationException("Wrong IP address=" + ip);
+        }
+        List<Integer> head = parseGroups(gap < 0 ? ip : ip.substring(0, gap), gap < 0, ip);
+        List<Integer> tail = gap < 0 ? List.of() : parseGroups(ip.substring(gap + 2), true, ip);
+        int zeros = 8 - head.size() - tail.size();
+        if (gap < 0 ? zeros != 0 : zeros < 1) {
+            throw new ValidationException("Wrong IP address=" + ip);
+        }
+
+        byte[] bytes = new byte[16];
+        int i = 0;
+        for (int group : head) {
+            bytes[i++] = (byte) (group >> 8);
+            bytes[i++] = (byte) group;
+        }
+        i += zeros * 2;
+        for (int group : tail) {
+            bytes[i++] = (byte) (group >> 8);
+            bytes[i++] = (byte) group;
+        }
+        return isIpv4Mapped(bytes) ? new byte[]{bytes[12], bytes[13], bytes[14], bytes[15]} : bytes;
+    }
+
+    private static List<Integer> parseGroups(String part, boolean last, String ip) {
+        List<Integer> groups = new ArrayList<>();
+        if (part.isEmpty()) {
+            return groups;
+        }
+        String[] parts = part.split(":", -1);
+        for (int i = 0; i < parts.length; i++) {
+            String group = parts[i];
+            if (last && i == parts.length - 1 && group.indexOf('.') >= 0) {
+                byte[] ipv4 = parseIpv4(group, ip);
+                groups.add((ipv4[0] & 0xff) << 8 | ipv4[1] & 0xff);
+                groups.add((ipv4[2] & 0xff) << 8 | ipv4[3] & 0xff);
+            } else if (group.isEmpty() || group.length() > 4 || !group.chars().allMatch(IpConverter::isHexDigit)) {
+                throw new ValidationException("Wrong IP address=" + ip);
+            } else {
+                groups.add(Integer.parseInt(group, 16));
+            }
+        }
+        return groups;
+    }
+
+    private static boolean isHexDigit(int c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+    private static boolean isIpv4Mapped(byte[] bytes) {
+        for (int i = 0; i < 10; i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return bytes[10] == (byte) 0xff && bytes[11] == (byte) 0xff;
+    }
+}
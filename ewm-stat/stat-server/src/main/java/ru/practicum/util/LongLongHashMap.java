@@ -0,0 +1,140 @@
+package ru.practicum.util;
+
+import java.util.Arrays;
+
+/**
+ * Class hash map of primitive long keys and values
+ * with open addressing and linear probing.
+ * Long.MIN_VALUE can not be used as a key
+ */
+public class LongLongHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Get value of key
+     *
+     * @param key          to find
+     * @param defaultValue returned if key is absent
+     * @return value of key
+     */
+    public long get(long key, long defaultValue) {
+        int slot = find(key);
+        return keys[slot] == EMPTY ? defaultValue : values[slot];
+    }
+
+    /**
+     * Add delta to value of key,
+     * absent key is added with value equal to delta
+     *
+     * @param key   to update
+     * @param delta to add
+     * @return new value of key
+     */
+    public long addTo(long key, long delta) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            insert(slot, key, delta);
+            return delta;
+        }
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    /**
+     * Put value of key if key is absent
+     *
+     * @param key   to put
+     * @param value to put
+     * @return true if key was added
+     */
+    public boolean putIfAbsent(long key, long value) {
+        int slot = find(key);
+        if (keys[slot] != EMPTY) {
+            return false;
+        }
+        insert(slot, key, value);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pass every entry to consumer
+     *
+     * @param consumer of entries
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void insert(int slot, long key, long value) {
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        // Load factor is kept at most 0.5, so probe sequences stay short
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private int find(long key) {
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                int newSlot = find(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Consumer of map entries
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+}
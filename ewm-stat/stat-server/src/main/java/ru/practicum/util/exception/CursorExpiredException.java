@@ -0,0 +1,10 @@
+package ru.practicum.util.exception;
+
+/**
+ * Custom exception for cursor of changes older than kept changes
+ */
+public class CursorExpiredException extends RuntimeException {
+    public CursorExpiredException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.practicum.util.exception;
+
+/**
+ * Custom exception for hits rejected by admission control of ingestion
+ */
+public class IngestOverloadedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public IngestOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS statistics(
+    id INTEGER GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
+    app_id INTEGER NOT NULL,
+	uri_id INTEGER NOT NULL,
+	ip BYTEA NOT NULL,
+	time_stamp TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS statistics_time_stamp_idx ON statistics (time_stamp);
+CREATE INDEX IF NOT EXISTS statistics_uri_id_time_stamp_idx ON statistics (uri_id, time_stamp);
@@ -0,0 +1,14 @@
+CREATE TABLE IF NOT EXISTS statistics(
+    id INTEGER GENERATED ALWAYS AS IDENTITY NOT NULL,
+    app_id INTEGER NOT NULL,
+	uri_id INTEGER NOT NULL,
+	ip BYTEA NOT NULL,
+	time_stamp TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+	PRIMARY KEY (id, time_stamp)
+) PARTITION BY RANGE (time_stamp);
+
+-- Monthly partitions are created by StatPartitionManager, default one keeps hits out of their range
+CREATE TABLE IF NOT EXISTS statistics_default PARTITION OF statistics DEFAULT;
+
+CREATE INDEX IF NOT EXISTS statistics_time_stamp_idx ON statistics (time_stamp);
+CREATE INDEX IF NOT EXISTS statistics_uri_id_time_stamp_idx ON statistics (uri_id, time_stamp);
@@ -1,9 +1,132 @@
-DROP TABLE IF EXISTS statistics;
+CREATE TABLE IF NOT EXISTS stat_app(
+    id INTEGER GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
+    name varchar(512) NOT NULL UNIQUE
+);
 
-CREATE TABLE IF NOT EXISTS statistics(
+CREATE TABLE IF NOT EXISTS stat_uri(
     id INTEGER GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
-    service varchar(512) NOT NULL,
-	uri varchar(512) NOT NULL,
-	ip varchar(512) NOT NULL,
-	time_stamp TIMESTAMP WITHOUT TIME ZONE NOT NULL
-);
\ No newline at end of file
+    name varchar(512) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stat_rollup_minute(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_rollup_hour(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_rollup_day(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+
+CREATE TABLE IF NOT EXISTS stat_rollup_month(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_hll_hour(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    sketch BYTEA NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_hll_day(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    sketch BYTEA NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_hll_month(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    sketch BYTEA NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_hll_pending(
+    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    sketch BYTEA NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS stat_hll_pending_bucket_idx ON stat_hll_pending (bucket);
+
+CREATE TABLE IF NOT EXISTS stat_ipv6(
+    id INTEGER GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
+    name varchar(64) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stat_ip_day(
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    bitmap BYTEA NOT NULL,
+    PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE TABLE IF NOT EXISTS stat_ip_day_pending(
+    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY NOT NULL,
+    uri_id INTEGER NOT NULL,
+    bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INTEGER NOT NULL,
+    bitmap BYTEA NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS stat_ip_day_pending_bucket_idx ON stat_ip_day_pending (bucket);
+
+CREATE TABLE IF NOT EXISTS stat_watermark(
+    name varchar(64) PRIMARY KEY NOT NULL,
+    watermark TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stat_sequence(
+    name varchar(64) PRIMARY KEY NOT NULL,
+    seq BIGINT NOT NULL
+);
+
+INSERT INTO stat_sequence (name, seq)
+SELECT 'delta', 0 WHERE NOT EXISTS (SELECT 1 FROM stat_sequence WHERE name = 'delta');
+
+INSERT INTO stat_sequence (name, seq)
+SELECT 'delta_pruned', 0 WHERE NOT EXISTS (SELECT 1 FROM stat_sequence WHERE name = 'delta_pruned');
+
+CREATE SEQUENCE IF NOT EXISTS stat_delta_seq;
+
+CREATE TABLE IF NOT EXISTS stat_lease(
+    name varchar(64) PRIMARY KEY NOT NULL,
+    owner varchar(64) NOT NULL,
+    expires_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stat_delta(
+    seq BIGINT NOT NULL,
+    app_id INTEGER NOT NULL,
+    uri_id INTEGER NOT NULL,
+    hits BIGINT NOT NULL,
+    created TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    PRIMARY KEY (seq, app_id, uri_id)
+);
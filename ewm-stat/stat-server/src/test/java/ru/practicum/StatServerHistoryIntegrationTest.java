@@ -0,0 +1,209 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.practicum.util.Util.FORMATTER;
+
+/**
+ * Statistics of ranges starting before the in-memory window of the last days
+ * are read from rollups, bitmaps, sketches and raw hits of range edges,
+ * they are compared with counts of the same hits. Cache of statistics is enabled
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class StatServerHistoryIntegrationTest {
+    private static final String APP = "ewm-main-service";
+    private static final List<String> URIS = List.of("/history/0", "/history/1", "/history/2", "/history/3");
+    private static final LocalDateTime TODAY = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS);
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    private final List<EndpointHitDto> hits = new ArrayList<>();
+
+    @BeforeAll
+    void saveHits() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // Hits of the last 40 days, most of them older than the window
+            LocalDateTime time = TODAY.minusDays(40).plusSeconds(random.nextInt(40 * 24 * 3600));
+            hits.add(new EndpointHitDto(APP, URIS.get(random.nextInt(URIS.size())),
+                    "10.1.0." + random.nextInt(60), time.format(FORMATTER)));
+        }
+        for (int i = 0; i < hits.size(); i += 500) {
+            ResponseEntity<EndpointHitBatchResultDto> response = restTemplate.postForEntity("/hits",
+                    hits.subList(i, Math.min(hits.size(), i + 500)), EndpointHitBatchResultDto.class);
+            assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        }
+    }
+
+    @Test
+    void rangeCrossingWindowIsCounted() {
+        // Bounds are aligned to minutes of the cache buckets, but not to hours and days of rollups
+        LocalDateTime start = TODAY.minusDays(30).plusHours(13).plusMinutes(17);
+        LocalDateTime end = TODAY.minusDays(1).plusHours(10).plusMinutes(42).plusSeconds(59);
+
+        assertEquals(count(start, end, false), toMap(getStats(start, end, false, false)));
+        assertEquals(count(start, end, true), toMap(getStats(start, end, true, false)));
+    }
+
+    @Test
+    void rangeBeforeWindowIsCounted() {
+        LocalDateTime start = TODAY.minusDays(35).plusHours(5).plusMinutes(3);
+        LocalDateTime end = TODAY.minusDays(12).plusHours(20).plusMinutes(10).plusSeconds(59);
+
+        assertEquals(count(start, end, false), toMap(getStats(start, end, false, false)));
+        assertEquals(count(start, end, true), toMap(getStats(start, end, true, false)));
+    }
+
+    @Test
+    void uniqueIpsCountedBySketchesAreClose() {
+        LocalDateTime start = TODAY.minusDays(33).plusHours(2).plusMinutes(45);
+        LocalDateTime end = TODAY.minusDays(3).plusHours(17).plusMinutes(5).plusSeconds(59);
+
+        Map<String, Long> exact = count(start, end, true);
+        Map<String, Long> approximate = toMap(getStats(start, end, true, true));
+
+        assertEquals(exact.keySet(), approximate.keySet());
+        for (String uri : exact.keySet()) {
+            assertTrue(Math.abs(exact.get(uri) - approximate.get(uri)) <= Math.max(1, exact.get(uri) * 0.05),
+                    uri + ": " + exact.get(uri) + " unique IPs, " + approximate.get(uri) + " estimated");
+        }
+    }
+
+    @Test
+    void cachedRangeCountsNewHit() {
+        LocalDateTime start = TODAY.minusDays(25).plusMinutes(1);
+        LocalDateTime end = TODAY.minusDays(15).plusMinutes(30).plusSeconds(59);
+        Map<String, Long> before = toMap(getStats(start, end, false, false));
+
+        EndpointHitDto hit = new EndpointHitDto(APP, "/history/0", "10.1.0.250",
+                TODAY.minusDays(20).plusHours(6).format(FORMATTER));
+        assertEquals(HttpStatus.CREATED, restTemplate.postForEntity("/hit", hit, EndpointHitDto.class)
+                .getStatusCode());
+        hits.add(hit);
+
+        Map<String, Long> after = toMap(getStats(start, end, false, false));
+        assertEquals(before.get("/history/0") + 1, after.get("/history/0"));
+        assertEquals(count(start, end, false), after);
+        assertEquals(count(start, end, true), toMap(getStats(start, end, true, false)));
+    }
+
+    @Test
+    void daySeriesOfOldRangeIsCounted() {
+        LocalDateTime start = TODAY.minusDays(20);
+        LocalDateTime end = TODAY.minusDays(10).minusSeconds(1);
+
+        ResponseEntity<ViewStatsSeriesDto[]> response = restTemplate.getForEntity(
+                "/stats/series?uri={uri}&start={start}&end={end}&interval=day", ViewStatsSeriesDto[].class,
+                Map.of("uri", "/history/1", "start", start.format(FORMATTER), "end", end.format(FORMATTER)));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(10, response.getBody().length);
+        for (ViewStatsSeriesDto bucket : response.getBody()) {
+            LocalDateTime day = LocalDateTime.parse(bucket.getBucket(), FORMATTER);
+            LocalDateTime dayEnd = day.plusDays(1).minusSeconds(1);
+            assertEquals(count(day, dayEnd, false).getOrDefault("/history/1", 0L), bucket.getHits(),
+                    "hits of " + day);
+            assertEquals(count(day, dayEnd, true).getOrDefault("/history/1", 0L), bucket.getUniqueHits(),
+                    "unique IPs of " + day);
+        }
+    }
+
+    @Test
+    void topOfOldRangeIsCounted() {
+        // Top of days older than hour retention of sketches is counted by sketches of whole days
+        LocalDateTime start = TODAY.minusDays(35);
+        LocalDateTime end = TODAY.minusDays(12).minusSeconds(1);
+
+        ResponseEntity<ViewStatsDto[]> response = restTemplate.getForEntity(
+                "/stats/top?start={start}&end={end}&n={n}", ViewStatsDto[].class,
+                Map.of("start", start.format(FORMATTER), "end", end.format(FORMATTER), "n", URIS.size()));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(count(start, end, false), toMap(List.of(response.getBody())));
+    }
+
+    @Test
+    void deltaSinceCursorCountsNewHits() {
+        ViewStatsDeltaDto first = restTemplate.getForObject("/stats/delta", ViewStatsDeltaDto.class);
+        List<EndpointHitDto> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            added.add(new EndpointHitDto(APP, URIS.get(i % URIS.size()), "10.1.1." + i,
+                    TODAY.minusDays(30 - i % 20).format(FORMATTER)));
+        }
+        assertEquals(HttpStatus.CREATED, restTemplate.postForEntity("/hits", added, EndpointHitBatchResultDto.class)
+                .getStatusCode());
+        hits.addAll(added);
+
+        ViewStatsDeltaDto delta = restTemplate.getForObject("/stats/delta?cursor={cursor}", ViewStatsDeltaDto.class,
+                first.getCursor());
+
+        Map<String, Long> counts = new HashMap<>();
+        added.forEach(hit -> counts.merge(hit.getUri(), 1L, Long::sum));
+        assertEquals(counts, toMap(delta.getStats()));
+    }
+
+    private Map<String, Long> count(LocalDateTime start, LocalDateTime end, boolean unique) {
+        Map<String, Set<String>> ips = new HashMap<>();
+        Map<String, Long> counts = new HashMap<>();
+        for (EndpointHitDto hit : hits) {
+            LocalDateTime time = LocalDateTime.parse(hit.getTimeStamp(), FORMATTER);
+            if (time.isBefore(start) || time.isAfter(end)) {
+                continue;
+            }
+            ips.computeIfAbsent(hit.getUri(), uri -> new HashSet<>()).add(hit.getIp());
+            counts.merge(hit.getUri(), 1L, Long::sum);
+        }
+        if (unique) {
+            ips.forEach((uri, set) -> counts.put(uri, (long) set.size()));
+        }
+        return counts;
+    }
+
+    private static Map<String, Long> toMap(List<ViewStatsDto> stats) {
+        Map<String, Long> counts = new HashMap<>();
+        for (ViewStatsDto stat : stats) {
+            counts.put(stat.getUri(), stat.getHits());
+        }
+        return counts;
+    }
+
+    private List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, boolean unique, boolean approximate) {
+        Map<String, Object> parameters = new HashMap<>();
+        StringBuilder url = new StringBuilder("/stats?start={start}&end={end}&unique={unique}&approximate={approximate}");
+        parameters.put("start", start.format(FORMATTER));
+        parameters.put("end", end.format(FORMATTER));
+        parameters.put("unique", unique);
+        parameters.put("approximate", approximate);
+        for (int i = 0; i < URIS.size(); i++) {
+            url.append("&uris={uri").append(i).append('}');
+            parameters.put("uri" + i, URIS.get(i));
+        }
+
+        ResponseEntity<ViewStatsDto[]> response = restTemplate.getForEntity(url.toString(), ViewStatsDto[].class,
+                parameters);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return List.of(response.getBody());
+    }
+}
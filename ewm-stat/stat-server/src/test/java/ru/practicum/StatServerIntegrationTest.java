@@ -0,0 +1,154 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static ru.practicum.util.Util.FORMATTER;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "stat-server.cache.enabled=false")
+class StatServerIntegrationTest {
+    private static final String APP = "ewm-main-service";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void savedHitsAreCountedInStats() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        saveHit("/events/1", "192.168.0.1", now.minusMinutes(5));
+        saveHit("/events/1", "192.168.0.1", now.minusMinutes(4));
+        saveHit("/events/1", "192.168.0.2", now.minusMinutes(3));
+        saveHit("/events/2", "2001:db8::1", now.minusMinutes(2));
+        // Out of requested period
+        saveHit("/events/1", "192.168.0.3", now.minusDays(2));
+
+        String start = now.minusHours(1).format(FORMATTER);
+        String end = now.plusHours(1).format(FORMATTER);
+
+        assertEquals(List.of(new ViewStatsDto(APP, "/events/1", 3), new ViewStatsDto(APP, "/events/2", 1)),
+                getStats(start, end, false));
+        assertEquals(List.of(new ViewStatsDto(APP, "/events/1", 2), new ViewStatsDto(APP, "/events/2", 1)),
+                getStats(start, end, true));
+    }
+
+    @Test
+    void batchOfHitsIsSavedAndCounted() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        List<EndpointHitDto> hits = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            hits.add(new EndpointHitDto(APP, "/batch/" + i % 7, "10.0.4." + i % 40,
+                    now.minusMinutes(30).plusSeconds(i).format(FORMATTER)));
+        }
+
+        ResponseEntity<EndpointHitBatchResultDto> response = restTemplate.postForEntity("/hits", hits,
+                EndpointHitBatchResultDto.class);
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertEquals(700, response.getBody().getReceived());
+        assertEquals(700, response.getBody().getAccepted());
+        // Hits are written in JDBC batches of stat-server.hits.batch-size
+        assertEquals(List.of(500, 200), response.getBody().getBatches());
+
+        String start = now.minusHours(1).format(FORMATTER);
+        String end = now.plusHours(1).format(FORMATTER);
+        Map<String, Long> hitCounts = hits.stream()
+                .collect(Collectors.groupingBy(EndpointHitDto::getUri, Collectors.counting()));
+        Map<String, Long> uniqueCounts = hits.stream()
+                .collect(Collectors.groupingBy(EndpointHitDto::getUri,
+                        Collectors.collectingAndThen(Collectors.mapping(EndpointHitDto::getIp, Collectors.toSet()),
+                                ips -> (long) ips.size())));
+        // Hits of other tests of the period are not compared
+        assertEquals(hitCounts, toMap(getAllStats(start, end, false), "/batch/"));
+        assertEquals(uniqueCounts, toMap(getAllStats(start, end, true), "/batch/"));
+    }
+
+    @Test
+    void topOfUniqueIpsIsExact() {
+        LocalDateTime time = LocalDateTime.now().minusDays(3).truncatedTo(ChronoUnit.HOURS).plusMinutes(10);
+        for (int i = 0; i < 5; i++) {
+            saveHit("/top/1", "10.0.1." + i % 3, time.plusMinutes(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            saveHit("/top/2", "10.0.2.1", time.plusMinutes(i));
+        }
+        saveHit("/top/3", "10.0.3.1", time);
+        saveHit("/top/3", "10.0.3.2", time);
+
+        String start = time.minusMinutes(5).format(FORMATTER);
+        String end = time.plusMinutes(30).format(FORMATTER);
+
+        List<ViewStatsDto> top = getTop(start, end, 2, true);
+        assertEquals(List.of(new ViewStatsDto(APP, "/top/1", 3), new ViewStatsDto(APP, "/top/3", 2)), top);
+        // Unique IPs of every URI of period are counted as by /stats
+        assertEquals(getAllStats(start, end, true).subList(0, 2), top);
+        assertEquals(List.of(new ViewStatsDto(APP, "/top/1", 5)), getTop(start, end, 1, false));
+    }
+
+    @Test
+    void malformedIpIsRejected() {
+        EndpointHitDto hit = new EndpointHitDto(APP, "/events/3", "192.168.0", LocalDateTime.now().format(FORMATTER));
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/hit", hit, String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    private void saveHit(String uri, String ip, LocalDateTime time) {
+        EndpointHitDto hit = new EndpointHitDto(APP, uri, ip, time.format(FORMATTER));
+
+        ResponseEntity<EndpointHitDto> response = restTemplate.postForEntity("/hit", hit, EndpointHitDto.class);
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+    }
+
+    private List<ViewStatsDto> getStats(String start, String end, boolean unique) {
+        ResponseEntity<ViewStatsDto[]> response = restTemplate.getForEntity(
+                "/stats?start={start}&end={end}&uris={first}&uris={second}&unique={unique}", ViewStatsDto[].class,
+                Map.of("start", start, "end", end, "first", "/events/1", "second", "/events/2", "unique", unique));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return List.of(response.getBody());
+    }
+
+    private static Map<String, Long> toMap(List<ViewStatsDto> stats, String uriPrefix) {
+        Map<String, Long> counts = new HashMap<>();
+        for (ViewStatsDto stat : stats) {
+            if (stat.getUri().startsWith(uriPrefix)) {
+                counts.put(stat.getUri(), stat.getHits());
+            }
+        }
+        return counts;
+    }
+
+    private List<ViewStatsDto> getAllStats(String start, String end, boolean unique) {
+        ResponseEntity<ViewStatsDto[]> response = restTemplate.getForEntity(
+                "/stats?start={start}&end={end}&unique={unique}", ViewStatsDto[].class,
+                Map.of("start", start, "end", end, "unique", unique));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return List.of(response.getBody());
+    }
+
+    private List<ViewStatsDto> getTop(String start, String end, int n, boolean unique) {
+        ResponseEntity<ViewStatsDto[]> response = restTemplate.getForEntity(
+                "/stats/top?start={start}&end={end}&n={n}&unique={unique}", ViewStatsDto[].class,
+                Map.of("start", start, "end", end, "n", n, "unique", unique));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return List.of(response.getBody());
+    }
+}
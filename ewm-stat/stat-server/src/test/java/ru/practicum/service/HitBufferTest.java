@@ -0,0 +1,67 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.practicum.model.Statistics;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class HitBufferTest {
+
+    @Test
+    void stopWaitsForSlowWriterAndWritesRestAfterIt() throws InterruptedException {
+        HitWriter hitWriter = mock(HitWriter.class);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            // Write of a slow database does not react to interruption
+            long until = System.currentTimeMillis() + 300;
+            while (System.currentTimeMillis() < until) {
+                Thread.onSpinWait();
+            }
+            List<?> hits = invocation.getArgument(0);
+            written.addAndGet(hits.size());
+            running.decrementAndGet();
+            return List.of(hits.size());
+        }).when(hitWriter).write(anyList());
+
+        HitBuffer buffer = new HitBuffer(hitWriter, "buffered", 100, 5, 10, 50, 3, 10,
+                new SimpleMeterRegistry());
+        buffer.start();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.offer(hit(i)));
+        }
+        // The first group is being written when the rest is offered
+        Thread.sleep(100);
+        for (int i = 5; i < 20; i++) {
+            assertTrue(buffer.offer(hit(i)));
+        }
+
+        // Shutdown timeout is over while the writer is busy
+        buffer.stop();
+
+        assertEquals(0, running.get());
+        assertEquals(1, maxRunning.get());
+        assertEquals(20, written.get());
+        assertEquals(0, buffer.size());
+    }
+
+    private static Statistics hit(int i) {
+        return Statistics.builder()
+                .appId(1)
+                .uriId(i)
+                .ip(new byte[]{10, 0, 0, (byte) i})
+                .timeStamp(LocalDateTime.now())
+                .build();
+    }
+}
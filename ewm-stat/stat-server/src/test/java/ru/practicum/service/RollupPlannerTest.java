@@ -0,0 +1,102 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.model.RollupHorizon;
+import ru.practicum.model.RollupLevel;
+import ru.practicum.model.RollupSegment;
+
+import javax.validation.ValidationException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupPlannerTest {
+
+    @Test
+    void splitsRangeIntoCoarsestBucketsAndRawEdges() {
+        LocalDateTime from = LocalDateTime.of(2022, 1, 30, 22, 59, 30);
+        LocalDateTime to = LocalDateTime.of(2022, 4, 1, 1, 2, 10);
+
+        List<RollupSegment> segments = RollupPlanner.plan(from, to);
+
+        assertEquals(List.of(
+                new RollupSegment(null, from, LocalDateTime.of(2022, 1, 30, 23, 0)),
+                new RollupSegment(RollupLevel.HOUR, LocalDateTime.of(2022, 1, 30, 23, 0),
+                        LocalDateTime.of(2022, 1, 31, 0, 0)),
+                new RollupSegment(RollupLevel.DAY, LocalDateTime.of(2022, 1, 31, 0, 0),
+                        LocalDateTime.of(2022, 2, 1, 0, 0)),
+                new RollupSegment(RollupLevel.MONTH, LocalDateTime.of(2022, 2, 1, 0, 0),
+                        LocalDateTime.of(2022, 4, 1, 0, 0)),
+                new RollupSegment(RollupLevel.HOUR, LocalDateTime.of(2022, 4, 1, 0, 0),
+                        LocalDateTime.of(2022, 4, 1, 1, 0)),
+                new RollupSegment(RollupLevel.MINUTE, LocalDateTime.of(2022, 4, 1, 1, 0),
+                        LocalDateTime.of(2022, 4, 1, 1, 2)),
+                new RollupSegment(null, LocalDateTime.of(2022, 4, 1, 1, 2), to)), segments);
+    }
+
+    @Test
+    void rangeWithinOneBucketIsRaw() {
+        LocalDateTime from = LocalDateTime.of(2022, 1, 1, 10, 0, 5);
+        LocalDateTime to = LocalDateTime.of(2022, 1, 1, 10, 0, 50);
+
+        assertEquals(List.of(new RollupSegment(null, from, to)), RollupPlanner.plan(from, to));
+    }
+
+    @Test
+    void emptyRangeHasNoSegments() {
+        LocalDateTime time = LocalDateTime.of(2022, 1, 1, 10, 0);
+
+        assertTrue(RollupPlanner.plan(time, time).isEmpty());
+    }
+
+    @Test
+    void usesOnlyLevelsKeptSinceHorizon() {
+        // Minutes are kept since 1 March, raw hits since 1 April
+        RollupHorizon horizon = new RollupHorizon(LocalDateTime.of(2022, 4, 1, 0, 0),
+                Map.of(RollupLevel.MINUTE, LocalDateTime.of(2022, 3, 1, 0, 0)));
+        LocalDateTime from = LocalDateTime.of(2022, 2, 27, 5, 0);
+        LocalDateTime to = LocalDateTime.of(2022, 4, 1, 0, 0, 30);
+
+        List<RollupSegment> segments = RollupPlanner.plan(from, to, RollupLevel.values(), horizon);
+
+        assertEquals(List.of(
+                new RollupSegment(RollupLevel.HOUR, from, LocalDateTime.of(2022, 2, 28, 0, 0)),
+                new RollupSegment(RollupLevel.DAY, LocalDateTime.of(2022, 2, 28, 0, 0),
+                        LocalDateTime.of(2022, 3, 1, 0, 0)),
+                new RollupSegment(RollupLevel.MONTH, LocalDateTime.of(2022, 3, 1, 0, 0),
+                        LocalDateTime.of(2022, 4, 1, 0, 0)),
+                new RollupSegment(null, LocalDateTime.of(2022, 4, 1, 0, 0), to)), segments);
+    }
+
+    @Test
+    void rejectsUnalignedEdgeBeforeRawHorizon() {
+        RollupHorizon horizon = new RollupHorizon(LocalDateTime.of(2022, 4, 1, 0, 0), Map.of());
+        LocalDateTime from = LocalDateTime.of(2022, 3, 10, 12, 30, 15);
+        LocalDateTime to = LocalDateTime.of(2022, 4, 2, 0, 0);
+
+        assertThrows(ValidationException.class,
+                () -> RollupPlanner.plan(from, to, RollupLevel.values(), horizon));
+    }
+
+    @Test
+    void acceptsAlignedEdgeBeforeRawHorizon() {
+        RollupHorizon horizon = new RollupHorizon(LocalDateTime.of(2022, 4, 1, 0, 0), Map.of());
+        LocalDateTime from = LocalDateTime.of(2022, 3, 10, 12, 30);
+        LocalDateTime to = LocalDateTime.of(2022, 4, 2, 0, 0);
+
+        List<RollupSegment> segments = RollupPlanner.plan(from, to, RollupLevel.values(), horizon);
+
+        assertEquals(List.of(
+                new RollupSegment(RollupLevel.MINUTE, from, LocalDateTime.of(2022, 3, 10, 13, 0)),
+                new RollupSegment(RollupLevel.HOUR, LocalDateTime.of(2022, 3, 10, 13, 0),
+                        LocalDateTime.of(2022, 3, 11, 0, 0)),
+                new RollupSegment(RollupLevel.DAY, LocalDateTime.of(2022, 3, 11, 0, 0),
+                        LocalDateTime.of(2022, 4, 1, 0, 0)),
+                new RollupSegment(RollupLevel.DAY, LocalDateTime.of(2022, 4, 1, 0, 0),
+                        LocalDateTime.of(2022, 4, 2, 0, 0))), segments);
+    }
+}
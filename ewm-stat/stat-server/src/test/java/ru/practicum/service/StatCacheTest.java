@@ -0,0 +1,134 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ViewStatsDto;
+import ru.practicum.model.Statistics;
+
+import javax.validation.ValidationException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatCacheTest {
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 1, 12, 0, 10);
+    private static final LocalDateTime END = LocalDateTime.of(2022, 10, 1, 13, 0, 20);
+    private static final String[] URIS = {"/events/1"};
+
+    private final StatCache cache = new StatCache(true, 60, 30_000, 100, new SimpleMeterRegistry());
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<ViewStatsDto>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get(START, END, URIS, false, false, (from, to) -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return List.of(new ViewStatsDto("ewm", "/events/1", 5));
+                })));
+            }
+            // Let every request reach the cache while the first load runs
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<List<ViewStatsDto>> result : results) {
+                assertEquals(List.of(new ViewStatsDto("ewm", "/events/1", 5)), result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void loadsStatisticsOfBucketBounds() {
+        List<LocalDateTime> bounds = new ArrayList<>();
+
+        cache.get(START, END, URIS, false, false, (from, to) -> {
+            bounds.add(from);
+            bounds.add(to);
+            return List.of();
+        });
+
+        assertEquals(List.of(LocalDateTime.of(2022, 10, 1, 12, 0), LocalDateTime.of(2022, 10, 1, 13, 0, 59)),
+                bounds);
+    }
+
+    @Test
+    void valueLoadedWhileHitIsCommittedIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(START, END, URIS, false, false, (from, to) -> {
+            loads.incrementAndGet();
+            cache.invalidate(List.of(hit("/events/1", START.plusMinutes(5))));
+            return List.of();
+        });
+        cache.get(START, END, URIS, false, false, (from, to) -> {
+            loads.incrementAndGet();
+            return List.of();
+        });
+        cache.get(START, END, URIS, false, false, (from, to) -> {
+            loads.incrementAndGet();
+            return List.of();
+        });
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void hitOfOtherUriDoesNotInvalidateEntry() {
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            cache.get(START, END, URIS, false, false, (from, to) -> {
+                loads.incrementAndGet();
+                return List.of();
+            });
+            cache.invalidate(List.of(hit("/events/2", START.plusMinutes(5))));
+        }
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        assertThrows(ValidationException.class, () -> cache.get(START, END, URIS, false, false, (from, to) -> {
+            throw new ValidationException("Failed");
+        }));
+
+        List<ViewStatsDto> value = cache.get(START, END, URIS, false, false, (from, to) -> List.of());
+
+        assertTrue(value.isEmpty());
+        assertEquals(1, cache.size());
+    }
+
+    private static Statistics hit(String uri, LocalDateTime time) {
+        return Statistics.builder()
+                .uri(uri)
+                .ip(new byte[]{10, 0, 0, 1})
+                .timeStamp(time)
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
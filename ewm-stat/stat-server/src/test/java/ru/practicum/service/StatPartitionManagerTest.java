@@ -0,0 +1,77 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.storage.BitmapRepository;
+import ru.practicum.storage.PartitionRepository;
+import ru.practicum.storage.RollupRepository;
+import ru.practicum.storage.SegmentHitStore;
+import ru.practicum.storage.SketchRepository;
+import ru.practicum.storage.WatermarkRepository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StatPartitionManagerTest {
+    private static final YearMonth OLD_MONTH = YearMonth.now().minusMonths(6);
+
+    private final PartitionRepository partitionRepository = mock(PartitionRepository.class);
+    private final WatermarkRepository watermarkRepository = mock(WatermarkRepository.class);
+    private final BitmapMerger bitmapMerger = mock(BitmapMerger.class);
+    private StatPartitionManager manager;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.getPartitionMonths()).thenReturn(List.of(OLD_MONTH, YearMonth.now()));
+        BitmapRepository bitmapRepository = mock(BitmapRepository.class);
+        when(bitmapRepository.isEnabled()).thenReturn(true);
+
+        manager = new StatPartitionManager(partitionRepository, mock(SegmentHitStore.class),
+                mock(TransactionTemplate.class), bitmapRepository, mock(RollupRepository.class),
+                mock(SketchRepository.class), watermarkRepository, bitmapMerger, dataSource,
+                3, 3, "drop", 1000, 0, 0, 7);
+    }
+
+    @Test
+    void oldMonthIsKeptUntilItsBitmapsAreBuilt() {
+        when(bitmapMerger.getBuiltFrom()).thenReturn(LocalDateTime.now().minusDays(1));
+
+        manager.maintain();
+
+        verify(partitionRepository, never()).dropPartition(any());
+        verify(partitionRepository, never()).deleteOlderThan(anyString(), any(), anyInt());
+        verify(watermarkRepository, never()).set(eq(WatermarkRepository.RETENTION), any());
+    }
+
+    @Test
+    void oldMonthIsDroppedAfterBitmapsAreBuilt() {
+        manager.maintain();
+
+        verify(watermarkRepository).set(WatermarkRepository.RETENTION,
+                PartitionRepository.toStart(YearMonth.now().minusMonths(3)));
+        verify(partitionRepository).dropPartition(OLD_MONTH);
+        verify(partitionRepository, never()).dropPartition(YearMonth.now());
+    }
+}
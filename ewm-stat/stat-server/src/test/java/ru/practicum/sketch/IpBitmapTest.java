@@ -0,0 +1,65 @@
+package ru.practicum.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpBitmapTest {
+
+    @Test
+    void countsIpv4AndIpv6Separately() {
+        IpBitmap bitmap = new IpBitmap();
+        bitmap.addIpv4(ipv4(1));
+        bitmap.addIpv4(ipv4(1));
+        bitmap.addIpv4(ipv4(2));
+        // Id of IPv6 address equal to number of IPv4 address is another IP
+        bitmap.addIpv6(1);
+
+        assertEquals(3, bitmap.cardinality());
+    }
+
+    @Test
+    void mergeCountsUnion() {
+        IpBitmap first = bitmap(0, 600);
+        IpBitmap second = bitmap(400, 1000);
+
+        assertTrue(first.merge(second));
+        assertEquals(1000, first.cardinality());
+
+        assertFalse(first.merge(second));
+        assertEquals(1000, first.cardinality());
+    }
+
+    @Test
+    void bitmapIsRestoredFromBytes() {
+        IpBitmap bitmap = bitmap(0, 70_000);
+        bitmap.addIpv6(7);
+        bitmap.addIpv6(100_000);
+
+        IpBitmap restored = IpBitmap.fromBytes(bitmap.toBytes());
+
+        assertEquals(70_002, restored.cardinality());
+        assertFalse(restored.merge(bitmap));
+    }
+
+    @Test
+    void emptyBitmapIsRestoredFromBytes() {
+        assertEquals(0, IpBitmap.fromBytes(new IpBitmap().toBytes()).cardinality());
+    }
+
+    private static IpBitmap bitmap(int from, int to) {
+        IpBitmap bitmap = new IpBitmap();
+        for (int i = from; i < to; i++) {
+            bitmap.addIpv4(ipv4(i));
+        }
+        return bitmap;
+    }
+
+    private static byte[] ipv4(int number) {
+        return ByteBuffer.allocate(4).putInt(number).array();
+    }
+}
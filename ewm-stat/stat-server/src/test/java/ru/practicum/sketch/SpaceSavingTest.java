@@ -0,0 +1,108 @@
+package ru.practicum.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsAreExactWithinCapacity() {
+        SpaceSaving sketch = new SpaceSaving(10);
+        for (long key = 0; key < 10; key++) {
+            sketch.add(key, key + 1);
+        }
+
+        Map<Long, Long> counts = counts(sketch);
+
+        assertEquals(10, counts.size());
+        for (long key = 0; key < 10; key++) {
+            assertEquals(key + 1, counts.get(key));
+        }
+    }
+
+    @Test
+    void heavyKeysAreKeptAndOverestimatedWithinBound() {
+        int capacity = 20;
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        Map<Long, Long> exact = new HashMap<>();
+        Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            // Keys 0..4 take half of hits, the rest is spread over 1000 keys
+            long key = random.nextBoolean() ? random.nextInt(5) : 5 + random.nextInt(1000);
+            sketch.add(key, 1);
+            exact.merge(key, 1L, Long::sum);
+            total++;
+        }
+
+        Map<Long, Long> counts = counts(sketch);
+
+        assertEquals(capacity, counts.size());
+        for (long key = 0; key < 5; key++) {
+            long count = counts.get(key);
+            assertTrue(count >= exact.get(key));
+            assertTrue(count - exact.get(key) <= total / capacity);
+        }
+    }
+
+    @Test
+    void minIsZeroWhileSketchIsNotFull() {
+        SpaceSaving sketch = new SpaceSaving(3);
+        sketch.add(1, 5);
+        sketch.add(2, 2);
+
+        Map<Long, Long> overMin = new HashMap<>();
+        long min = sketch.forEachOverMin(overMin::put);
+
+        assertEquals(0, min);
+        assertEquals(Map.of(1L, 5L, 2L, 2L), overMin);
+    }
+
+    @Test
+    void countsOverMinOfFullSketch() {
+        SpaceSaving sketch = new SpaceSaving(2);
+        sketch.add(1, 5);
+        sketch.add(2, 2);
+        // Replaces key 2 and inherits its count
+        sketch.add(3, 1);
+
+        Map<Long, Long> overMin = new HashMap<>();
+        long min = sketch.forEachOverMin(overMin::put);
+
+        assertEquals(3, min);
+        assertEquals(Map.of(1L, 2L, 3L, 0L), overMin);
+    }
+
+    @Test
+    void mergeAddsMinOfSketchesWithoutKey() {
+        SpaceSaving first = new SpaceSaving(2);
+        first.add(1, 10);
+        first.add(2, 4);
+        SpaceSaving second = new SpaceSaving(2);
+        second.add(1, 3);
+        second.add(3, 6);
+
+        Map<Long, Long> merged = new HashMap<>();
+        long minSum = first.forEachOverMin((key, count) -> merged.merge(key, count, Long::sum))
+                + second.forEachOverMin((key, count) -> merged.merge(key, count, Long::sum));
+        merged.replaceAll((key, count) -> count + minSum);
+
+        // Key 1: 10 + 3 exact, key 2 may have up to 3 hits in the second sketch, key 3 up to 4 in the first one
+        assertEquals(7, minSum);
+        assertEquals(13, merged.get(1L));
+        assertEquals(7, merged.get(2L));
+        assertEquals(10, merged.get(3L));
+    }
+
+    private static Map<Long, Long> counts(SpaceSaving sketch) {
+        Map<Long, Long> counts = new HashMap<>();
+        sketch.forEach(counts::put);
+        return counts;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.practicum.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaRepositoryTest {
+    private EmbeddedDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("schema-h2.sql", "schema.sql")
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void secondServerDoesNotStartWhileLeaseIsHeld() {
+        DeltaRepository first = repository(60_000);
+        first.load();
+
+        // Second server waits for its own lease time
+        assertThrows(IllegalStateException.class, () -> repository(200).load());
+
+        first.complete(first.start());
+    }
+
+    @Test
+    void releasedLeaseIsTakenAtOnce() {
+        DeltaRepository first = repository(60_000);
+        first.load();
+        long seq = first.start();
+        first.complete(seq);
+        first.release();
+
+        DeltaRepository second = repository(60_000);
+        second.load();
+        long next = second.start();
+        second.complete(next);
+
+        assertTrue(next > seq);
+        assertEquals(next, second.getCurrent());
+    }
+
+    @Test
+    void releasedLeaseIsNotRenewed() {
+        DeltaRepository first = repository(60_000);
+        first.load();
+        first.release();
+
+        assertFalse(first.renewLease());
+        assertThrows(IllegalStateException.class, first::start);
+        repository(60_000).load();
+    }
+
+    @Test
+    void serverWhichLostLeaseDoesNotWrite() throws InterruptedException {
+        DeltaRepository first = repository(200);
+        first.load();
+        long seq = first.start();
+        // First server stopped renewing its lease
+        Thread.sleep(300);
+        DeltaRepository second = repository(200);
+        second.load();
+
+        first.complete(seq);
+
+        assertEquals(0, second.getCurrent());
+        assertThrows(IllegalStateException.class, first::start);
+        assertTrue(second.renewLease());
+    }
+
+    private DeltaRepository repository(long leaseMillis) {
+        return new DeltaRepository(new NamedParameterJdbcTemplate(database), database, leaseMillis);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.practicum.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.model.StatCount;
+import ru.practicum.model.Statistics;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentHitStoreTest {
+    private static final LocalDateTime START = LocalDateTime.of(2022, 10, 1, 12, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsHitsOfPeriodByAppAndUri() {
+        SegmentHitStore store = open(1 << 20);
+        store.append(List.of(
+                hit(1, 10, 1, 0),
+                hit(1, 10, 1, 1),
+                hit(1, 10, 2, 2),
+                hit(1, 20, 1, 3),
+                hit(2, 10, 1, 4),
+                hit(1, 10, 3, 100)));
+
+        List<StatCount> all = hits(store, START, START.plusSeconds(10), null, false);
+        List<StatCount> unique = hits(store, START, START.plusSeconds(10), null, true);
+        List<StatCount> filtered = hits(store, START, START.plusSeconds(10), List.of(20), false);
+
+        assertEquals(List.of(new StatCount(1, 10, 3), new StatCount(1, 20, 1), new StatCount(2, 10, 1)),
+                sorted(all));
+        assertEquals(List.of(new StatCount(1, 10, 2), new StatCount(1, 20, 1), new StatCount(2, 10, 1)),
+                sorted(unique));
+        assertEquals(List.of(new StatCount(1, 20, 1)), filtered);
+        store.close();
+    }
+
+    @Test
+    void readsHitsOfSealedSegmentsAfterReopen() {
+        // Two records per segment, so hits are rolled over several segments
+        SegmentHitStore store = open(16 + 2 * Segment.RECORD_SIZE);
+        List<Statistics> hits = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            hits.add(hit(1, 10, i, i * 60));
+        }
+        store.append(hits);
+        store.close();
+
+        SegmentHitStore reopened = open(1 << 20);
+        List<Statistics> since = new ArrayList<>();
+        reopened.forEachSince(START.plusMinutes(2), since::add);
+
+        assertEquals(5, since.size());
+        assertEquals(START.plusMinutes(2), since.get(0).getTimeStamp());
+        assertEquals(START.plusMinutes(6), since.get(4).getTimeStamp());
+        assertEquals(List.of(new StatCount(1, 10, 7)), hits(reopened, START, START.plusHours(1), null, true));
+        reopened.close();
+    }
+
+    @Test
+    void deletesSealedSegmentsOlderThanTime() {
+        SegmentHitStore store = open(16 + 2 * Segment.RECORD_SIZE);
+        List<Statistics> hits = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            hits.add(hit(1, 10, i, i * 60));
+        }
+        store.append(hits);
+
+        assertEquals(1, store.deleteOlderThan(START.plusMinutes(2)));
+
+        List<StatCount> counts = hits(store, START, START.plusHours(1), null, false);
+        assertEquals(List.of(new StatCount(1, 10, 4)), counts);
+        store.close();
+    }
+
+    @Test
+    void approximateUniqueCountIsCloseToExact() {
+        SegmentHitStore store = open(1 << 20);
+        List<Statistics> hits = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            hits.add(hit(1, 10, i % 1000, i % 600));
+        }
+        store.append(hits);
+
+        List<StatCount> counts = new ArrayList<>();
+        store.getHits(START, START.plusHours(1), null, true, true, counts::add);
+
+        assertEquals(1, counts.size());
+        assertTrue(Math.abs(counts.get(0).getHits() - 1000) <= 50);
+        store.close();
+    }
+
+    private SegmentHitStore open(int maxBytes) {
+        SegmentHitStore store = new SegmentHitStore("segment", dir.toString(), maxBytes, 3_600_000, true);
+        store.open();
+        return store;
+    }
+
+    private static Statistics hit(int appId, int uriId, int ip, int second) {
+        return Statistics.builder()
+                .appId(appId)
+                .uriId(uriId)
+                .ip(new byte[]{10, 0, (byte) (ip >> 8), (byte) ip})
+                .timeStamp(START.plusSeconds(second))
+                .build();
+    }
+
+    private static List<StatCount> hits(SegmentHitStore store, LocalDateTime start, LocalDateTime end,
+                                        List<Integer> uriIds, boolean unique) {
+        List<StatCount> counts = new ArrayList<>();
+        store.getHits(start, end, uriIds, unique, false, counts::add);
+        return counts;
+    }
+
+    private static List<StatCount> sorted(List<StatCount> counts) {
+        List<StatCount> sorted = new ArrayList<>(counts);
+        sorted.sort((first, second) -> first.getAppId() != second.getAppId()
+                ? Integer.compare(first.getAppId(), second.getAppId())
+                : Integer.compare(first.getUriId(), second.getUriId()));
+        return sorted;
+    }
+}
@@ -0,0 +1,135 @@
+package ru.practicum.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentTest {
+    private static final int HEADER_SIZE = 16;
+    private static final int CRC_OFFSET = 36;
+    private static final byte[] IPV4 = {10, 0, 0, 1};
+    private static final byte[] IPV6 = {0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void scanReadsRecordsOfPeriodInclusive() {
+        Segment segment = Segment.create(dir, 0, 1 << 20);
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(segment.append(1000 + i, 1, i % 7, IPV4));
+        }
+
+        List<Long> times = times(segment, 1500, 2600);
+
+        assertEquals(1101, times.size());
+        assertEquals(1500, times.get(0));
+        assertEquals(2600, times.get(times.size() - 1));
+        assertTrue(segment.overlaps(3999, 5000));
+        assertFalse(segment.overlaps(4000, 5000));
+    }
+
+    @Test
+    void recordKeepsFieldsOfHit() {
+        Segment segment = Segment.create(dir, 0, 1 << 16);
+        segment.append(100, 3, 5, IPV4);
+        segment.append(200, 4, 6, IPV6);
+
+        assertEquals(100, segment.getTime(0));
+        assertEquals(3, segment.getAppId(0));
+        assertEquals(5, segment.getUriId(0));
+        assertArrayEquals(IPV4, segment.getIp(0));
+        assertEquals(200, segment.getTime(1));
+        assertEquals(4, segment.getAppId(1));
+        assertEquals(6, segment.getUriId(1));
+        assertArrayEquals(IPV6, segment.getIp(1));
+    }
+
+    @Test
+    void appendReturnsFalseWhenSegmentIsFull() {
+        Segment segment = Segment.create(dir, 0, HEADER_SIZE + 2 * Segment.RECORD_SIZE);
+
+        assertTrue(segment.append(1, 1, 1, IPV4));
+        assertTrue(segment.append(2, 1, 1, IPV4));
+        assertTrue(segment.isFull());
+        assertFalse(segment.append(3, 1, 1, IPV4));
+        assertEquals(2, segment.getCount());
+    }
+
+    @Test
+    void sealedSegmentIsReopenedWithSameRecords() throws IOException {
+        Segment segment = Segment.create(dir, 7, 1 << 20);
+        for (int i = 0; i < 2500; i++) {
+            segment.append(i, i, i, i % 2 == 0 ? IPV4 : IPV6);
+        }
+        segment.seal();
+
+        assertEquals(HEADER_SIZE + 2500L * Segment.RECORD_SIZE, Files.size(logPath(7)));
+
+        Segment reopened = Segment.open(logPath(7));
+
+        assertTrue(reopened.isSealed());
+        assertEquals(7, reopened.getId());
+        assertEquals(2500, reopened.getCount());
+        assertEquals(times(segment, 0, Long.MAX_VALUE), times(reopened, 0, Long.MAX_VALUE));
+        assertArrayEquals(IPV6, reopened.getIp(2499));
+        assertThrows(IllegalStateException.class, () -> reopened.append(1, 1, 1, IPV4));
+    }
+
+    @Test
+    void unsealedSegmentIsRecoveredUpToFirstBrokenRecord() throws IOException {
+        Segment segment = Segment.create(dir, 0, 1 << 16);
+        for (int i = 0; i < 10; i++) {
+            segment.append(i, 1, 1, IPV4);
+        }
+        segment.force();
+        breakRecord(logPath(0), 6);
+
+        Segment recovered = Segment.open(logPath(0));
+
+        assertTrue(recovered.isSealed());
+        assertEquals(6, recovered.getCount());
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L), times(recovered, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void unsealedSegmentWithoutRecordsIsEmpty() {
+        Segment.create(dir, 0, 1 << 16).force();
+
+        Segment recovered = Segment.open(logPath(0));
+
+        assertEquals(0, recovered.getCount());
+        assertFalse(recovered.overlaps(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    private Path logPath(long id) {
+        return dir.resolve(String.format("%020d.log", id));
+    }
+
+    private static void breakRecord(Path path, int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}),
+                    HEADER_SIZE + (long) index * Segment.RECORD_SIZE + CRC_OFFSET);
+        }
+    }
+
+    private static List<Long> times(Segment segment, long from, long to) {
+        List<Long> times = new ArrayList<>();
+        segment.scan(from, to, (s, index) -> times.add(s.getTime(index)));
+        return times;
+    }
+}